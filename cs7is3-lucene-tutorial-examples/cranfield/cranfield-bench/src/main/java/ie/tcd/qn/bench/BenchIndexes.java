@@ -0,0 +1,62 @@
+package ie.tcd.qn.bench;
+
+import ie.tcd.qn.CranfieldIndexer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/*
+ * On-disk indexes shared by the benchmarks, built into temporary directories.
+ */
+final class BenchIndexes {
+
+    private BenchIndexes() {}
+
+    /*
+     * Cranfield index exactly as CranfieldIndexer builds it.
+     */
+    static Path cranfield(String cranPath) throws Exception {
+        Path dir = Files.createTempDirectory("bench-cran");
+        IndexWriterConfig iwc = new IndexWriterConfig(new EnglishAnalyzer());
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir), iwc)) {
+            CranfieldIndexer.parseAndIndex(cranPath, writer, 1);
+        }
+        return dir;
+    }
+
+    /*
+     * Poe corpus indexed like example2 CreateIndex: stored filename and stored content.
+     */
+    static Path corpus(String corpusDir) throws IOException {
+        Path dir = Files.createTempDirectory("bench-corpus");
+        IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer());
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir), iwc);
+             Stream<Path> files = Files.list(Paths.get(corpusDir))) {
+            for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                Document doc = new Document();
+                doc.add(new StringField("filename", file.toString(), Field.Store.YES));
+                doc.add(new TextField("content", Files.readString(file, StandardCharsets.UTF_8), Field.Store.YES));
+                writer.addDocument(doc);
+            }
+        }
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
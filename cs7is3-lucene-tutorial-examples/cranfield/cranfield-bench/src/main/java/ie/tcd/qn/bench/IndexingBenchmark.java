@@ -0,0 +1,61 @@
+package ie.tcd.qn.bench;
+
+import ie.tcd.qn.CranfieldIndexer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Throughput of CranfieldIndexer.parseAndIndex over cran.all.1400 into an in-memory directory.
+ * The docs and bytes counters are reported as rates, i.e. docs/sec and bytes/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class IndexingBenchmark {
+
+    @Param("../cran.all.1400")
+    public String cranPath;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private long fileBytes;
+    private int docCount;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long docs;
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fileBytes = Files.size(Paths.get(cranPath));
+        try (var lines = Files.lines(Paths.get(cranPath))) {
+            docCount = (int) lines.filter(l -> l.startsWith(".I ")).count();
+        }
+    }
+
+    @Benchmark
+    public int parseAndIndex(Counters counters) throws Exception {
+        try (Directory dir = new ByteBuffersDirectory();
+             IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new EnglishAnalyzer()))) {
+            CranfieldIndexer.parseAndIndex(cranPath, writer, threads);
+            counters.docs += docCount;
+            counters.bytes += fileBytes;
+            return writer.getDocStats().numDocs;
+        }
+    }
+}
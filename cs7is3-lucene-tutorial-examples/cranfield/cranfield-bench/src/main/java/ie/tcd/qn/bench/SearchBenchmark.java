@@ -0,0 +1,78 @@
+package ie.tcd.qn.bench;
+
+import ie.tcd.qn.CranfieldSearcher;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Per-query latency of the Cranfield queries for each Similarity, on an on-disk index.
+ * Every invocation runs the next query of cran.qry, cycling through all of them.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SearchBenchmark {
+
+    @Param({"bm25", "classic", "lm", "dfr"})
+    public String model;
+
+    @Param("../cran.all.1400")
+    public String cranPath;
+
+    @Param("../cran.qry")
+    public String queryPath;
+
+    @Param("1000")
+    public int maxHits;
+
+    private Path indexDir;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private Query[] queries;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        indexDir = BenchIndexes.cranfield(cranPath);
+        reader = DirectoryReader.open(FSDirectory.open(indexDir));
+        searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(CranfieldSearcher.similarityFor(model));
+
+        QueryParser parser = new QueryParser("content", new EnglishAnalyzer());
+        List<Query> parsed = new ArrayList<>();
+        for (String qtext : CranfieldSearcher.readCranfieldQueries(queryPath)) {
+            if (!qtext.isBlank()) parsed.add(parser.parse(QueryParser.escape(qtext)));
+        }
+        queries = parsed.toArray(new Query[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        reader.close();
+        BenchIndexes.delete(indexDir);
+    }
+
+    @Benchmark
+    public TopDocs search(Cursor cursor) throws Exception {
+        Query query = queries[cursor.next++ % queries.length];
+        return searcher.search(query, maxHits);
+    }
+}
@@ -0,0 +1,90 @@
+package ie.tcd.qn.bench;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of loading stored fields per hit: the whole document versus only the id field
+ * (docno for Cranfield, filename for the Poe corpus). Each invocation loads FETCHES random docs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StoredFieldsBenchmark {
+
+    private static final int FETCHES = 1000;
+
+    @Param({"cranfield", "corpus"})
+    public String data;
+
+    @Param("../cran.all.1400")
+    public String cranPath;
+
+    @Param("../../corpus")
+    public String corpusPath;
+
+    private Path indexDir;
+    private DirectoryReader reader;
+    private String idField;
+    private int[] docs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if (data.equals("corpus")) {
+            indexDir = BenchIndexes.corpus(corpusPath);
+            idField = "filename";
+        } else {
+            indexDir = BenchIndexes.cranfield(cranPath);
+            idField = "docno";
+        }
+        reader = DirectoryReader.open(FSDirectory.open(indexDir));
+
+        Random random = new Random(42);
+        docs = new int[FETCHES];
+        for (int i = 0; i < FETCHES; i++) {
+            docs[i] = random.nextInt(reader.maxDoc());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        reader.close();
+        BenchIndexes.delete(indexDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FETCHES)
+    public int wholeDocument() throws Exception {
+        StoredFields storedFields = reader.storedFields();
+        int chars = 0;
+        for (int doc : docs) {
+            chars += storedFields.document(doc).get(idField).length();
+        }
+        return chars;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FETCHES)
+    public int idFieldOnly() throws Exception {
+        StoredFields storedFields = reader.storedFields();
+        int chars = 0;
+        for (int doc : docs) {
+            DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(idField);
+            storedFields.document(doc, visitor);
+            Document document = visitor.getDocument();
+            chars += document.get(idField).length();
+        }
+        return chars;
+    }
+}
@@ -7,7 +7,7 @@ OUTPUT_DIR="${3:-runs}"
 QRELS="${4:-../QRelsCorrectedforTRECeval}"   
 MAX_HITS="${5:-1000}"                        
 
-MAIN_CLASS="CranfieldSearcher"               
+MAIN_CLASS="ie.tcd.qn.CranfieldSearcher"               
 MODELS=("bm25" "vsm" "lm" "dfr")    
 
 
@@ -38,45 +38,45 @@ print_metrics() {
   echo
 }
 
-run_model() {
-  local model="$1"
-  echo "==================== Running model: ${model} ===================="
-
+# one JVM for every model: the reader is opened and the queries are parsed once,
+# and every run is scored against the qrels in-process (eval_<model>.txt)
+run_all_models() {
+  local joined
+  joined="$(IFS=,; echo "${MODELS[*]}")"
+  echo "==================== Searching models: ${joined} ===================="
 
   mvn -q exec:java -Dexec.mainClass="${MAIN_CLASS}" \
-    -Dexec.args="${INDEX_DIR} ${QUERY_FILE} ${OUTPUT_DIR} --model=${model} --maxHits=${MAX_HITS}" \
+    -Dexec.args="${INDEX_DIR} ${QUERY_FILE} ${OUTPUT_DIR} --models=${joined} --maxHits=${MAX_HITS} --qrels=${QRELS}" \
     -Dexec.jvmArgs="--enable-native-access=ALL-UNNAMED --add-modules jdk.incubator.vector"
+}
 
+evaluate_model() {
+  local model="$1"
+  echo "==================== Evaluating model: ${model} ===================="
 
-  local run_file=""
+  local eval_file=""
   case "${model}" in
-    bm25)    run_file="${OUTPUT_DIR}/run_bm25.txt" ;;
-    vsm)     run_file="${OUTPUT_DIR}/run_classic.txt" ;;
-    lm)      run_file="${OUTPUT_DIR}/run_lm.txt" ;;
-    dfr)     run_file="${OUTPUT_DIR}/run_dfr.txt" ;;
-    *)       run_file="${OUTPUT_DIR}/run_${model}.txt" ;;
+    bm25)    eval_file="${OUTPUT_DIR}/eval_bm25.txt" ;;
+    vsm)     eval_file="${OUTPUT_DIR}/eval_classic.txt" ;;
+    lm)      eval_file="${OUTPUT_DIR}/eval_lm.txt" ;;
+    dfr)     eval_file="${OUTPUT_DIR}/eval_dfr.txt" ;;
+    *)       eval_file="${OUTPUT_DIR}/eval_${model}.txt" ;;
   esac
 
-  if [[ ! -s "${run_file}" ]]; then
-    echo "ERROR: run file not found or empty: ${run_file}" >&2
+  if [[ ! -s "${eval_file}" ]]; then
+    echo "ERROR: eval file not found or empty: ${eval_file}" >&2
     exit 1
   fi
 
-  echo "Run file: ${run_file}  (size: $(wc -l < "${run_file}") lines)"
-
-  # head -n 3 "${run_file}" || true
-
-
-  local eval_file="${OUTPUT_DIR}/eval_${model}.txt"
-  trec_eval "${QRELS}" "${run_file}" > "${eval_file}"
-
   echo "Eval file: ${eval_file}"
   print_metrics "${eval_file}"
 }
 
 
+run_all_models
+
 for m in "${MODELS[@]}"; do
-  run_model "${m}"
+  evaluate_model "${m}"
 done
 
 echo "Done. Full outputs under: ${OUTPUT_DIR}"
@@ -0,0 +1,113 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FeatureField;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * BM25 scores of the "content" terms computed at index time (--impacts).
+ * A first pass over the source analyzes the content text of every record to get document
+ * frequencies and the average length; every document then gets one FeatureField("impacts",
+ * term, score) per distinct term, with the score BM25Similarity would give that term in that
+ * document. A query sums FeatureField.newLinearQuery clauses, so search reads one quantized
+ * score per posting instead of computing it from freq and norm (model "impact" in CranfieldSearcher).
+ * FeatureField keeps 9 significant bits of each score, so near-ties may rank differently.
+ */
+final class BM25Impacts {
+
+    static final String FIELD = "impacts";
+
+    // BM25Similarity's defaults
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final Analyzer analyzer;
+    private final Map<String, Integer> docFreqs;
+    private final int docCount;
+    private final float avgdl;
+
+    private BM25Impacts(Analyzer analyzer, Map<String, Integer> docFreqs, int docCount, float avgdl) {
+        this.analyzer = analyzer;
+        this.docFreqs = docFreqs;
+        this.docCount = docCount;
+        this.avgdl = avgdl;
+    }
+
+    /*
+     * Collection statistics of the content field, as the index will have them once every
+     * record of the file is added.
+     */
+    static BM25Impacts collect(Path file, Analyzer analyzer) throws Exception {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        long[] docsAndLength = new long[2];
+        CranfieldRecordParser.parse(file, rec -> {
+            Set<String> distinct = new HashSet<>();
+            int length = analyze(analyzer, content(rec), term -> distinct.add(term));
+            if (length == 0) return;
+            docsAndLength[0]++;
+            docsAndLength[1] += length;
+            for (String term : distinct) docFreqs.merge(term, 1, Integer::sum);
+        });
+        int docCount = (int) docsAndLength[0];
+        return new BM25Impacts(analyzer, docFreqs, docCount,
+                docCount == 0 ? 1f : (float) (docsAndLength[1] / (double) docCount));
+    }
+
+    /*
+     * Add the impacts of one record; safe to call from several analysis threads.
+     */
+    void addTo(Document doc, CranfieldRecordParser.Record rec) throws IOException {
+        Map<String, int[]> freqs = new HashMap<>();
+        int length = analyze(analyzer, content(rec), term -> freqs.computeIfAbsent(term, t -> new int[1])[0]++);
+        // the length BM25 sees is the one its norm encodes
+        float dl = SmallFloat.byte4ToInt(SmallFloat.intToByte4(length));
+        float norm = K1 * ((1 - B) + B * dl / avgdl);
+        for (Map.Entry<String, int[]> e : freqs.entrySet()) {
+            int freq = e.getValue()[0];
+            doc.add(new FeatureField(FIELD, e.getKey(), idf(e.getKey()) * freq / (freq + norm)));
+        }
+    }
+
+    private float idf(String term) {
+        int df = docFreqs.getOrDefault(term, 1);
+        return (float) Math.log(1 + (docCount - df + 0.5D) / (df + 0.5D));
+    }
+
+    private static CharSequence[] content(CranfieldRecordParser.Record rec) {
+        return new CharSequence[] {rec.title(), rec.authors(), rec.bib(), rec.abstr()};
+    }
+
+    private interface TermHandler {
+        void accept(String term);
+    }
+
+    /*
+     * Hand every token of the parts (joined like the content field) to the handler and return
+     * the field length, not counting stacked tokens.
+     */
+    private static int analyze(Analyzer analyzer, CharSequence[] parts, TermHandler handler) throws IOException {
+        int length = 0;
+        try (TokenStream ts = analyzer.tokenStream("content", new CranfieldRecordParser.SliceReader('\n', parts))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                handler.accept(term.toString());
+                if (posInc.getPositionIncrement() != 0) length++;
+            }
+            ts.end();
+        }
+        return length;
+    }
+}
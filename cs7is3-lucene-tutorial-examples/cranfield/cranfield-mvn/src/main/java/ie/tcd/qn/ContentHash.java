@@ -0,0 +1,52 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.util.BytesRef;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * SHA-256 over named texts, used to recognise content that was seen before
+ * (the token cache key and the --incremental document fingerprint).
+ */
+final class ContentHash {
+
+    private ContentHash() {}
+
+    /*
+     * Hash of names[i] with the parts in values[i], for every i. Every part is length-prefixed,
+     * so moving text from one part or name to another changes the hash.
+     */
+    static BytesRef of(String[] names, CharSequence[][] values) {
+        MessageDigest digest = sha256();
+        byte[] buf = new byte[4096];
+        for (int f = 0; f < names.length; f++) {
+            digest.update(names[f].getBytes(StandardCharsets.UTF_8));
+            for (CharSequence part : values[f]) {
+                digest.update((Integer.toString(part.length()) + ':').getBytes(StandardCharsets.US_ASCII));
+                int n = 0;
+                for (int i = 0; i < part.length(); i++) {
+                    if (n == buf.length) {
+                        digest.update(buf, 0, n);
+                        n = 0;
+                    }
+                    char c = part.charAt(i);
+                    buf[n++] = (byte) (c >>> 8);
+                    buf[n++] = (byte) c;
+                }
+                digest.update(buf, 0, n);
+            }
+            digest.update((byte) 0);
+        }
+        return new BytesRef(digest.digest());
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Top-k collection that also counts how many documents reached the collector, i.e. were scored.
+ * The scorer is passed through untouched, so the minimum competitive score still reaches it and
+ * block-max WAND can skip blocks once totalHitsThreshold hits have been counted.
+ * One instance per search.
+ */
+final class CountingCollectorManager implements CollectorManager<CountingCollectorManager.Counting, TopDocs> {
+
+    private final TopScoreDocCollectorManager topDocs;
+    private final LongAdder collected = new LongAdder();
+
+    CountingCollectorManager(int numHits, int totalHitsThreshold) {
+        this.topDocs = new TopScoreDocCollectorManager(numHits, null, totalHitsThreshold);
+    }
+
+    @Override
+    public Counting newCollector() throws IOException {
+        return new Counting(topDocs.newCollector());
+    }
+
+    @Override
+    public TopDocs reduce(Collection<Counting> collectors) throws IOException {
+        List<TopScoreDocCollector> inner = new ArrayList<>(collectors.size());
+        for (Counting c : collectors) {
+            inner.add(c.topDocs);
+        }
+        return topDocs.reduce(inner);
+    }
+
+    /*
+     * Documents collected by all slices of the search.
+     */
+    long collected() {
+        return collected.sum();
+    }
+
+    final class Counting extends FilterCollector {
+        private final TopScoreDocCollector topDocs;
+
+        Counting(TopScoreDocCollector topDocs) {
+            super(topDocs);
+            this.topDocs = topDocs;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                private long count;
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    count++;
+                    in.collect(doc);
+                }
+
+                @Override
+                public void finish() throws IOException {
+                    collected.add(count);
+                    in.finish();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CranfieldIndexer {
+
+    /*
+     * Main
+     * Validate args: need [path_to_cran.all.1400, index_dir].
+     * Optional: --threads=N analysis threads, --ramBufferMB=N writer buffer, --forceMerge=N final segment count,
+     *           --noContent to skip the aggregated "content" field (search with --fields instead),
+     *           --append to update an existing index in place (documents are replaced by docno),
+     *           --tokenCache=dir to reuse the analyzed tokens of documents whose text has not changed,
+     *           --incremental to only re-index records whose fingerprint changed (see Incremental),
+     *           --segments=N to flush N segments of equal size and never merge them, so searchers
+     *           have segments to spread one query over (balanced with one thread; every analysis
+     *           thread flushes its own remainder at the end),
+     *           --sortBy=docno to keep every segment sorted by numeric docno (an index sort), so
+     *           docids follow the collection order and neighbouring records share postings blocks;
+     *           see CranfieldReorder for reordering an existing index by content instead,
+     *           --schema=file to choose per field index options, norms and storing, and the
+     *           stored fields compression (see IndexSchema; IndexFootprint shows the effect),
+     *           --impacts to also index the BM25 score of every content term (see BM25Impacts),
+     *           for CranfieldSearcher --model=impact; needs a full build, not --append.
+     * Build EnglishAnalyzer and IndexWriterConfig in CREATE mode (overwrite) or CREATE_OR_APPEND.
+     * Open IndexWriter on index_dir.
+     * Call parseAndIndex(filePath, writer, threads, options) to parse raw Cranfield data and add documents.
+     * Print completion message.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java CranfieldIndexer <cran.all.1400 path> <indexDir> [--threads=N] [--ramBufferMB=N] [--forceMerge=N] [--noContent] [--append] [--tokenCache=dir] [--incremental] [--segments=N] [--sortBy=docno] [--schema=file] [--impacts]");
+            System.exit(1);
+        }
+        // raw Cranfield file
+        String cranPath = args[0];        
+        // output index directory
+        Path indexPath = Paths.get(args[1]); 
+
+        int threads = 1;
+        double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+        int forceMerge = 0;
+        boolean content = true;
+        boolean append = false;
+        Path tokenCacheDir = null;
+        boolean incremental = false;
+        int segments = 0;
+        String sortBy = null;
+        IndexSchema schema = IndexSchema.defaults();
+        boolean impacts = false;
+        for (String a : args) {
+            if (a.startsWith("--threads=")) {
+                threads = Math.max(1, Integer.parseInt(a.substring("--threads=".length())));
+            } else if (a.startsWith("--ramBufferMB=")) {
+                ramBufferMB = Double.parseDouble(a.substring("--ramBufferMB=".length()));
+            } else if (a.startsWith("--forceMerge=")) {
+                forceMerge = Integer.parseInt(a.substring("--forceMerge=".length()));
+            } else if (a.equals("--noContent")) {
+                content = false;
+            } else if (a.equals("--append")) {
+                append = true;
+            } else if (a.startsWith("--tokenCache=")) {
+                tokenCacheDir = Paths.get(a.substring("--tokenCache=".length()));
+            } else if (a.equals("--incremental")) {
+                incremental = true;
+                append = true;
+            } else if (a.startsWith("--segments=")) {
+                segments = Integer.parseInt(a.substring("--segments=".length()));
+            } else if (a.startsWith("--sortBy=")) {
+                sortBy = a.substring("--sortBy=".length());
+            } else if (a.startsWith("--schema=")) {
+                schema = IndexSchema.load(Paths.get(a.substring("--schema=".length())));
+                System.out.println("Schema " + a.substring("--schema=".length()) + ":");
+                System.out.println(schema.describe());
+            } else if (a.equals("--impacts")) {
+                impacts = true;
+            }
+        }
+
+        if (impacts && append) {
+            // the scores are only right for statistics of the whole collection
+            System.out.println("--impacts rebuilds the whole index, ignoring --append and --incremental");
+            append = false;
+            incremental = false;
+        }
+
+        FSDirectory directory = FSDirectory.open(indexPath);
+        String lastSchema = append ? Incremental.lastSchema(directory) : null;
+        if (lastSchema != null && !lastSchema.equals(schema.digest())) {
+            // a field cannot change its index options in place, and updating only some
+            // documents would leave the index in two layouts
+            System.out.println("The index was built with another schema, rebuilding the whole index");
+            append = false;
+        }
+
+        EnglishAnalyzer analyzer = new EnglishAnalyzer();      
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        // Initialization, or keep the existing segments so open searchers only see the changes
+        iwc.setOpenMode(append ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);   
+        // a larger buffer means fewer, bigger flushed segments
+        iwc.setRAMBufferSizeMB(ramBufferMB);
+        iwc.setCodec(schema.codec());
+        if (segments > 0) {
+            // flush by document count only, and keep every flushed segment as it is
+            int[] records = new int[1];
+            CranfieldRecordParser.parse(Paths.get(cranPath), rec -> records[0]++);
+            iwc.setMaxBufferedDocs(Math.max(2, (records[0] + segments - 1) / segments));
+            iwc.setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+            iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+            if (forceMerge > 0) {
+                System.out.println("--forceMerge has no effect with --segments, ignoring it");
+                forceMerge = 0;
+            }
+        }
+
+        if (sortBy != null) {
+            if (!sortBy.equals("docno")) {
+                System.err.println("Unknown --sortBy: " + sortBy + " (expected docno)");
+                System.exit(1);
+            }
+            // flushed and merged segments are both written in this order
+            iwc.setIndexSort(new Sort(new SortField(DOCNO_ORDER, SortField.Type.LONG)));
+        }
+
+        Incremental changes = null;
+        if (incremental) {
+            Map<String, String> source = Incremental.sourceState(Paths.get(cranPath), content, schema);
+            if (append && source.equals(Incremental.lastSourceState(directory))) {
+                System.out.println("Source unchanged since the last incremental run -> " + indexPath);
+                directory.close();
+                return;
+            }
+            // after a schema change every record is added to the new index again
+            changes = new Incremental(append ? Incremental.loadFingerprints(directory) : new HashMap<>(), source);
+        }
+
+        TokenStreamCache tokenCache = tokenCacheDir == null ? null : TokenStreamCache.open(tokenCacheDir, analyzer);
+        BM25Impacts scores = null;
+        if (impacts) {
+            long start = System.nanoTime();
+            scores = BM25Impacts.collect(Paths.get(cranPath), analyzer);
+            System.out.println("Collected BM25 statistics in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+            // parse the Cranfield file and index each document we extract
+            parseAndIndex(cranPath, writer, threads, new Options(content, append, tokenCache, changes, sortBy != null, schema, scores));
+            if (changes != null) {
+                changes.finish(writer);
+            } else {
+                // lets a later --append or --incremental run check it uses the same schema
+                writer.setLiveCommitData(Map.of(Incremental.SCHEMA_KEY, schema.digest()).entrySet());
+            }
+            if (forceMerge > 0) {
+                writer.forceMerge(forceMerge);
+            }
+        }
+        // only saved once the index is complete
+        if (tokenCache != null) {
+            tokenCache.close();
+            System.out.println("Token cache: " + tokenCache.hits() + " documents reused, "
+                    + tokenCache.misses() + " analyzed");
+        }
+
+        if (segments > 0) {
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                StringBuilder sizes = new StringBuilder();
+                for (LeafReaderContext leaf : reader.leaves()) {
+                    sizes.append(sizes.length() == 0 ? "" : ", ").append(leaf.reader().maxDoc());
+                }
+                System.out.println(reader.leaves().size() + " segments, documents per segment: " + sizes);
+            }
+        }
+
+        System.out.println("Indexing complete -> " + indexPath);
+    }
+
+    /*
+     * Per-document indexing switches; tokenCache and incremental are null unless
+     * --tokenCache and --incremental are given, docnoOrder adds the --sortBy=docno sort key,
+     * impacts is null unless --impacts is given.
+     */
+    private record Options(boolean content, boolean append, TokenStreamCache tokenCache, Incremental incremental,
+                           boolean docnoOrder, IndexSchema schema, BM25Impacts impacts) {}
+
+    /*
+     * State of an --incremental run.
+     * Every record is fingerprinted with a hash of its docno and text (plus whether the content
+     * field is built), kept in "fingerprint" doc values. Records whose fingerprint is already in
+     * the index are skipped, changed ones replace their document by docno, and documents whose
+     * record disappeared from the source file are deleted.
+     * The source file's path, size and mtime go into the commit user data, so a run over an
+     * untouched file stops before parsing anything. The schema digest is part of both, and a
+     * run with another schema than the index's rebuilds the index instead of updating it.
+     * Records are checked from the analysis threads, so the mutable state is concurrent.
+     */
+    private static final class Incremental {
+        private final Map<String, BytesRef> known;
+        private final Map<String, String> source;
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private final LongAdder added = new LongAdder();
+        private final LongAdder updated = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+
+        Incremental(Map<String, BytesRef> known, Map<String, String> source) {
+            this.known = known;
+            this.source = source;
+        }
+
+        static final String SCHEMA_KEY = "schema";
+
+        static Map<String, String> sourceState(Path file, boolean content, IndexSchema schema) throws IOException {
+            return Map.of(
+                    "source", file.toAbsolutePath().normalize().toString(),
+                    "source.size", Long.toString(Files.size(file)),
+                    "source.mtime", Long.toString(Files.getLastModifiedTime(file).toMillis()),
+                    "content", Boolean.toString(content),
+                    SCHEMA_KEY, schema.digest());
+        }
+
+        /*
+         * Digest of the schema the index was last committed with; indexes without one were
+         * built with the default layout. Null when there is no index yet.
+         */
+        static String lastSchema(Directory directory) throws IOException {
+            if (!DirectoryReader.indexExists(directory)) return null;
+            return lastSourceState(directory).getOrDefault(SCHEMA_KEY, IndexSchema.defaults().digest());
+        }
+
+        static Map<String, String> lastSourceState(Directory directory) throws IOException {
+            if (!DirectoryReader.indexExists(directory)) return Map.of();
+            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+            return commits.get(commits.size() - 1).getUserData();
+        }
+
+        /*
+         * docno -> fingerprint of every live document that has one.
+         */
+        static Map<String, BytesRef> loadFingerprints(Directory directory) throws IOException {
+            Map<String, BytesRef> known = new HashMap<>();
+            if (!DirectoryReader.indexExists(directory)) return known;
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                for (LeafReaderContext leaf : reader.leaves()) {
+                    Bits liveDocs = leaf.reader().getLiveDocs();
+                    SortedDocValues docnos = leaf.reader().getSortedDocValues("docno");
+                    BinaryDocValues fingerprints = leaf.reader().getBinaryDocValues("fingerprint");
+                    if (docnos == null || fingerprints == null) continue;
+                    for (int doc = fingerprints.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = fingerprints.nextDoc()) {
+                        if ((liveDocs != null && !liveDocs.get(doc)) || !docnos.advanceExact(doc)) continue;
+                        known.put(docnos.lookupOrd(docnos.ordValue()).utf8ToString(), BytesRef.deepCopyOf(fingerprints.binaryValue()));
+                    }
+                }
+            }
+            return known;
+        }
+
+        /*
+         * The record's fingerprint, or null when the index already holds exactly this record.
+         */
+        BytesRef check(CranfieldRecordParser.Record rec, boolean content) {
+            BytesRef fingerprint = ContentHash.of(
+                    new String[] {"docno", "title", "authors", "bib", "abstract", content ? "content" : "noContent", SCHEMA_KEY},
+                    new CharSequence[][] {{rec.docno()}, {rec.title()}, {rec.authors()}, {rec.bib()}, {rec.abstr()}, {},
+                            {source.get(SCHEMA_KEY)}});
+            seen.add(rec.docno());
+            BytesRef old = known.get(rec.docno());
+            if (fingerprint.equals(old)) {
+                unchanged.increment();
+                return null;
+            }
+            (old == null ? added : updated).increment();
+            return fingerprint;
+        }
+
+        /*
+         * Delete documents whose record is gone and remember the source state in the commit.
+         */
+        void finish(IndexWriter writer) throws IOException {
+            int deleted = 0;
+            for (String docno : known.keySet()) {
+                if (!seen.contains(docno)) {
+                    writer.deleteDocuments(new Term("docno", docno));
+                    deleted++;
+                }
+            }
+            writer.setLiveCommitData(source.entrySet());
+            System.out.println("Incremental: " + added.sum() + " added, " + updated.sum() + " updated, "
+                    + unchanged.sum() + " unchanged, " + deleted + " deleted");
+        }
+    }
+
+    // numeric docno, the --sortBy=docno index sort
+    private static final String DOCNO_ORDER = "docnoOrder";
+
+    // analyzed fields in the order their tokens are cached
+    private static final String[] CACHED_FIELDS = {"title", "authors", "bib", "abstract", "content"};
+
+    // marks the end of the record stream for the analysis threads
+    private static final CranfieldRecordParser.Record END = new CranfieldRecordParser.Record(null, null, null, null, null);
+
+    /*
+     * Index with the default document layout (content field, no append);
+     * used by the benchmarks in cranfield-bench.
+     */
+    public static void parseAndIndex(String file, IndexWriter writer, int threads) throws Exception {
+        parseAndIndex(file, writer, threads, new Options(true, false, null, null, false, IndexSchema.defaults(), null));
+    }
+
+    /*
+     * With one thread, parse and add documents on the calling thread.
+     * Otherwise the calling thread only splits records and hands them through a bounded queue
+     * to N analysis threads, which all add to the (thread-safe) IndexWriter.
+     * A failing analysis thread keeps draining the queue so the reader never blocks, and the
+     * first failure is rethrown once everything has stopped.
+     */
+    private static void parseAndIndex(String file, IndexWriter writer, int threads, Options options) throws Exception {
+        if (threads <= 1) {
+            CranfieldRecordParser.parse(Paths.get(file), doc -> addDoc(writer, doc, options));
+            return;
+        }
+
+        BlockingQueue<CranfieldRecordParser.Record> queue = new ArrayBlockingQueue<>(threads * 64);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    try {
+                        CranfieldRecordParser.Record doc;
+                        while ((doc = queue.take()) != END) {
+                            if (failure.get() != null) continue;
+                            try {
+                                addDoc(writer, doc, options);
+                            } catch (Exception e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            try {
+                CranfieldRecordParser.parse(Paths.get(file), queue::put);
+            } finally {
+                for (int t = 0; t < threads; t++) {
+                    queue.put(END);
+                }
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /*
+     * Build a Lucene Document.
+     * Text fields are analyzed straight from the mapped slices, typed by the schema;
+     * stored values need a String and are added as separate StoredFields.
+     * writer.addDocument(doc) to commit it to the index segment,
+     * or writer.updateDocument(docno, doc) when appending so a re-indexed record replaces the old one.
+     */
+    private static void addDoc(IndexWriter writer, CranfieldRecordParser.Record rec, Options options) throws IOException {
+        Document doc = new Document();
+
+        if (options.incremental() != null) {
+            BytesRef fingerprint = options.incremental().check(rec, options.content());
+            if (fingerprint == null) return;
+            doc.add(new BinaryDocValuesField("fingerprint", fingerprint));
+        }
+
+        doc.add(new StringField("docno", rec.docno(), Field.Store.YES));
+        // doc values copy lets the searcher resolve docno without decompressing stored fields
+        doc.add(new SortedDocValuesField("docno", new BytesRef(rec.docno())));
+        if (options.docnoOrder()) {
+            // docnos are numbers, sorting the string doc values would put "10" before "2"
+            doc.add(new NumericDocValuesField(DOCNO_ORDER, Long.parseLong(rec.docno())));
+        }
+        if (options.tokenCache() != null) {
+            addCachedFields(doc, rec, options);
+        } else {
+            addField(doc, options.schema(), "title", null, rec.title());
+            addField(doc, options.schema(), "authors", null, rec.authors());
+            addField(doc, options.schema(), "bib", null, rec.bib());
+            addField(doc, options.schema(), "abstract", null, rec.abstr());
+
+            // Aggregate field to enable search across all textual parts
+            // (a second copy of every token, skipped with --noContent)
+            if (options.content()) {
+                addField(doc, options.schema(), "content", null, rec.title(), rec.authors(), rec.bib(), rec.abstr());
+            }
+        }
+        if (options.impacts() != null) {
+            options.impacts().addTo(doc, rec);
+        }
+
+        if (options.append()) {
+            writer.updateDocument(new Term("docno", rec.docno()), doc);
+        } else {
+            writer.addDocument(doc);
+        }
+    }
+
+    /*
+     * Same fields as above, indexed from cached tokens instead of running the analyzer.
+     */
+    private static void addCachedFields(Document doc, CranfieldRecordParser.Record rec, Options options) throws IOException {
+        CharSequence[][] values = {
+                {rec.title()}, {rec.authors()}, {rec.bib()}, {rec.abstr()},
+                {rec.title(), rec.authors(), rec.bib(), rec.abstr()}};
+        int fields = options.content() ? CACHED_FIELDS.length : CACHED_FIELDS.length - 1;
+        TokenStreamCache.Tokens tokens = options.tokenCache().get(
+                Arrays.copyOf(CACHED_FIELDS, fields), Arrays.copyOf(values, fields));
+
+        for (int f = 0; f < fields; f++) {
+            addField(doc, options.schema(), CACHED_FIELDS[f], tokens.stream(f), values[f]);
+        }
+    }
+
+    /*
+     * Index the field from tokens, or from its parts joined by newlines when tokens is null,
+     * and store the joined parts, as far as the schema asks for either.
+     */
+    private static void addField(Document doc, IndexSchema schema, String name, TokenStream tokens, CharSequence... parts) {
+        FieldType type = schema.indexed(name);
+        if (type != null) {
+            doc.add(tokens != null ? new Field(name, tokens, type)
+                    : new Field(name, new CranfieldRecordParser.SliceReader('\n', parts), type));
+        }
+        if (schema.stored(name)) {
+            doc.add(new StoredField(name, parts.length == 1 ? parts[0].toString() : String.join("\n", parts)));
+        }
+    }
+}
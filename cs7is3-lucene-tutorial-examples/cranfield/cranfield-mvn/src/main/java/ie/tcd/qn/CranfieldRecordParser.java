@@ -0,0 +1,235 @@
+package ie.tcd.qn;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Zero-copy parser for Cranfield-style files (.I/.T/.A/.B/.W records).
+ * The file is memory-mapped with FileChannel.map and scanned byte by byte; each section is
+ * exposed as a ByteSlice over the mapping, so no text is copied until a Field asks for it.
+ * Files larger than one mapping are processed in windows that end on a ".I " line, so a
+ * single record must fit into one window.
+ */
+final class CranfieldRecordParser {
+
+    // largest region mapped at once (MappedByteBuffer is int-indexed)
+    private static final int MAX_WINDOW = 1 << 30;
+
+    private static final int NONE = -1;
+    private static final int T = 0, A = 1, B = 2, W = 3;
+
+    /*
+     * One record; fields are slices of the mapped file (or Strings when a section repeats).
+     */
+    record Record(String docno, CharSequence title, CharSequence authors, CharSequence bib, CharSequence abstr) {}
+
+    /*
+     * Receives records in file order.
+     */
+    interface RecordHandler {
+        void accept(Record record) throws Exception;
+    }
+
+    private CranfieldRecordParser() {}
+
+    /*
+     * Map the file window by window and hand every record to the handler.
+     * Same rules as the line-based parser: ".I " starts a record, a line starting with
+     * .T/.A/.B/.W switches section, text before the first section tag is ignored, and
+     * a repeated section is appended to the earlier one.
+     */
+    static void parse(Path file, RecordHandler handler) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long pos = 0;
+            while (pos < size) {
+                int len = (int) Math.min(MAX_WINDOW, size - pos);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                int limit = len;
+                if (pos + len < size) {
+                    limit = lastRecordStart(buf, len);
+                    if (limit <= 0) {
+                        throw new IOException("Cranfield record larger than " + MAX_WINDOW + " bytes at offset " + pos);
+                    }
+                }
+                parseWindow(buf, limit, handler);
+                pos += limit;
+            }
+        }
+    }
+
+    /*
+     * Offset of the last line starting with ".I " in buf[0, len), or -1.
+     */
+    private static int lastRecordStart(ByteBuffer buf, int len) {
+        for (int i = len - 3; i > 0; i--) {
+            if (buf.get(i - 1) == '\n' && buf.get(i) == '.' && buf.get(i + 1) == 'I' && buf.get(i + 2) == ' ') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Scan buf[0, limit) line by line, tracking only offsets.
+     */
+    private static void parseWindow(ByteBuffer buf, int limit, RecordHandler handler) throws Exception {
+        String docno = null;
+        CharSequence[] fields = new CharSequence[4];
+        int section = NONE;
+        int sectionStart = 0;
+
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') lineEnd++;
+            int next = Math.min(lineEnd + 1, limit);
+
+            int tag = lineEnd - lineStart >= 2 && buf.get(lineStart) == '.' ? buf.get(lineStart + 1) : 0;
+            boolean newRecord = tag == 'I' && lineEnd - lineStart >= 3 && buf.get(lineStart + 2) == ' ';
+            int newSection = switch (tag) {
+                case 'T' -> T;
+                case 'A' -> A;
+                case 'B' -> B;
+                case 'W' -> W;
+                default -> NONE;
+            };
+
+            if (newRecord || newSection != NONE) {
+                // close the open section just before this marker line
+                if (section != NONE) {
+                    fields[section] = append(fields[section], new ByteSlice(buf, sectionStart, lineStart));
+                }
+                section = newSection;
+                sectionStart = next;
+            }
+            if (newRecord) {
+                if (docno != null) {
+                    emit(handler, docno, fields);
+                }
+                docno = new ByteSlice(buf, lineStart + 3, lineEnd).toString().trim();
+            }
+            lineStart = next;
+        }
+
+        if (section != NONE) {
+            fields[section] = append(fields[section], new ByteSlice(buf, sectionStart, limit));
+        }
+        // if the last doc is still pending, pass it on too.
+        if (docno != null) {
+            emit(handler, docno, fields);
+        }
+    }
+
+    private static CharSequence append(CharSequence existing, ByteSlice slice) {
+        return existing == null ? slice : existing.toString() + slice;
+    }
+
+    private static void emit(RecordHandler handler, String docno, CharSequence[] fields) throws Exception {
+        handler.accept(new Record(docno, orEmpty(fields[T]), orEmpty(fields[A]), orEmpty(fields[B]), orEmpty(fields[W])));
+        java.util.Arrays.fill(fields, null);
+    }
+
+    private static CharSequence orEmpty(CharSequence cs) {
+        return cs == null ? "" : cs;
+    }
+
+    /*
+     * UTF-8 text between two offsets of a mapped buffer.
+     * Pure ASCII slices are read straight from the mapping; anything else is decoded once on demand.
+     */
+    static final class ByteSlice implements CharSequence {
+        private final ByteBuffer buf;
+        private final int start;
+        private final int end;
+        private final boolean ascii;
+        private String decoded;
+
+        ByteSlice(ByteBuffer buf, int start, int end) {
+            this.buf = buf;
+            this.start = start;
+            this.end = Math.max(start, end);
+            boolean a = true;
+            for (int i = start; i < this.end && a; i++) {
+                a = buf.get(i) >= 0;
+            }
+            this.ascii = a;
+        }
+
+        @Override
+        public int length() {
+            return ascii ? end - start : toString().length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return ascii ? (char) buf.get(start + index) : toString().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return ascii ? new ByteSlice(buf, start + from, start + to) : toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString() {
+            if (decoded == null) {
+                byte[] bytes = new byte[end - start];
+                buf.get(start, bytes);
+                decoded = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return decoded;
+        }
+    }
+
+    /*
+     * Reader over a sequence of CharSequences joined by a separator, so a TextField can
+     * analyze slices (or their concatenation) without materializing a String.
+     */
+    static final class SliceReader extends Reader {
+        private final CharSequence[] parts;
+        private final char separator;
+        private int part;
+        private int offset;
+
+        SliceReader(char separator, CharSequence... parts) {
+            this.parts = parts;
+            this.separator = separator;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0) return 0;
+            int n = 0;
+            while (n < len && part < parts.length) {
+                CharSequence cs = parts[part];
+                int remaining = cs.length() - offset;
+                if (remaining > 0) {
+                    int count = Math.min(remaining, len - n);
+                    for (int i = 0; i < count; i++) {
+                        cbuf[off + n + i] = cs.charAt(offset + i);
+                    }
+                    offset += count;
+                    n += count;
+                } else {
+                    // separator between parts, none after the last one
+                    if (part < parts.length - 1) {
+                        cbuf[off + n++] = separator;
+                    }
+                    part++;
+                    offset = 0;
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
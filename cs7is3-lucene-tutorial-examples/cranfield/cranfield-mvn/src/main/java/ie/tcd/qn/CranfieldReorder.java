@@ -0,0 +1,150 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.misc.index.BPIndexReorderer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+public class CranfieldReorder {
+
+    /*
+     * Main
+     * Copy <indexDir> to <outDir> with docids reordered by recursive graph bisection
+     * (BPIndexReorderer): documents that share terms get nearby docids, so postings deltas
+     * shrink and block-max skipping has tighter blocks. Then report the index size by file
+     * type and the BM25 latency of the Cranfield queries on both indexes.
+     * Each segment is reordered on its own and the results are written as one segment, so an
+     * index built with --forceMerge=1 gets a single global order. The copy has no index sort.
+     * Options: --fields=content,... fields BP clusters on (default: every indexed field),
+     *          --minDocFreq=N ignore rarer terms (default maxDoc / 1000, at least 2; Lucene's
+     *          default of 4096 is meant for large indexes), --threads=N,
+     *          --maxHits=N and --totalHitsThreshold=N for the queries (default 10 and 10, the
+     *          setting that lets block-max WAND skip), --rounds=N measured rounds after one
+     *          warm-up round, --qrels=file to also compare map.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java CranfieldReorder <indexDir> <outDir> <queryFile> [--fields=content,...] [--minDocFreq=N] [--threads=N] [--maxHits=N] [--totalHitsThreshold=N] [--rounds=N] [--qrels=file]");
+            return;
+        }
+
+        final String indexDir = args[0];
+        final String outDir = args[1];
+        final String queryFile = args[2];
+
+        Set<String> fields = null;
+        Integer minDocFreq = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxHits = 10;
+        int totalHitsThreshold = 10;
+        int rounds = 5;
+        String qrelsFile = null;
+        for (String a : args) {
+            if (a.startsWith("--fields=")) fields = new HashSet<>(Arrays.asList(a.substring("--fields=".length()).split(",")));
+            else if (a.startsWith("--minDocFreq=")) minDocFreq = Integer.parseInt(a.substring("--minDocFreq=".length()));
+            else if (a.startsWith("--threads=")) threads = Math.max(1, Integer.parseInt(a.substring("--threads=".length())));
+            else if (a.startsWith("--maxHits=")) maxHits = Integer.parseInt(a.substring("--maxHits=".length()));
+            else if (a.startsWith("--totalHitsThreshold=")) totalHitsThreshold = Integer.parseInt(a.substring("--totalHitsThreshold=".length()));
+            else if (a.startsWith("--rounds=")) rounds = Math.max(1, Integer.parseInt(a.substring("--rounds=".length())));
+            else if (a.startsWith("--qrels=")) qrelsFile = a.substring("--qrels=".length());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Directory source = FSDirectory.open(Paths.get(indexDir));
+             Directory target = FSDirectory.open(Paths.get(outDir))) {
+
+            //Reorder every segment, BP spills its forward index to temp files in the target
+            long start = System.nanoTime();
+            try (DirectoryReader reader = DirectoryReader.open(source)) {
+                BPIndexReorderer reorderer = new BPIndexReorderer();
+                reorderer.setMinDocFreq(minDocFreq != null ? minDocFreq : Math.max(2, reader.maxDoc() / 1000));
+                if (fields != null) reorderer.setFields(fields);
+
+                List<CodecReader> reordered = new ArrayList<>();
+                for (LeafReaderContext leaf : reader.leaves()) {
+                    reordered.add(reorderer.reorder((CodecReader) leaf.reader(), target, pool));
+                }
+                IndexWriterConfig iwc = new IndexWriterConfig(new EnglishAnalyzer());
+                iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+                try (IndexWriter writer = new IndexWriter(target, iwc)) {
+                    writer.addIndexes(reordered.toArray(new CodecReader[0]));
+                }
+                System.out.printf(Locale.ROOT, "Reordered %d documents in %d segments in %d ms -> %s%n",
+                        reader.numDocs(), reader.leaves().size(), (System.nanoTime() - start) / 1_000_000, outDir);
+            }
+
+            //Size on disk
+            System.out.println();
+            IndexFootprint.printComparison("before", IndexFootprint.bytesByExtension(source),
+                    "after", IndexFootprint.bytesByExtension(target));
+
+            //Latency: the same parsed queries, rounds alternating between the two indexes
+            List<String> queries = CranfieldSearcher.readCranfieldQueries(queryFile);
+            Query[] parsed = CranfieldSearcher.parseQueries(queries,
+                    CranfieldSearcher.queryFactory(new EnglishAnalyzer(), new LinkedHashMap<>()), null, null);
+            try (DirectoryReader before = DirectoryReader.open(source);
+                 DirectoryReader after = DirectoryReader.open(target)) {
+                IndexSearcher beforeSearcher = new IndexSearcher(before);
+                IndexSearcher afterSearcher = new IndexSearcher(after);
+                LatencyHistogram noParse = new LatencyHistogram();
+                SearchMetrics beforeMetrics = new SearchMetrics(noParse);
+                SearchMetrics afterMetrics = new SearchMetrics(noParse);
+                CranfieldSearcher.QueryResult[] beforeResults = null;
+                CranfieldSearcher.QueryResult[] afterResults = null;
+                for (int round = 0; round <= rounds; round++) {
+                    // round 0 warms up and is not measured
+                    beforeResults = timed(beforeSearcher, parsed, maxHits, totalHitsThreshold, round == 0 ? null : beforeMetrics);
+                    afterResults = timed(afterSearcher, parsed, maxHits, totalHitsThreshold, round == 0 ? null : afterMetrics);
+                }
+                System.out.println();
+                beforeMetrics.print("before");
+                afterMetrics.print("after");
+
+                //Docids differ, so compare what the queries return by docno
+                int same = 0;
+                for (int i = 0; i < parsed.length; i++) {
+                    if (beforeResults[i] == null || Arrays.equals(beforeResults[i].docnos(), afterResults[i].docnos())) same++;
+                }
+                System.out.printf(Locale.ROOT, "%d of %d queries return the same top %d docnos in the same order%n",
+                        same, parsed.length, maxHits);
+                if (qrelsFile != null) {
+                    TrecEvaluator evaluator = TrecEvaluator.load(Paths.get(qrelsFile));
+                    System.out.printf(Locale.ROOT, "map before = %.4f : map after = %.4f%n",
+                            CranfieldSearcher.evaluate(evaluator, beforeResults).mean("map"),
+                            CranfieldSearcher.evaluate(evaluator, afterResults).mean("map"));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static CranfieldSearcher.QueryResult[] timed(IndexSearcher searcher, Query[] queries, int maxHits,
+                                                         int totalHitsThreshold, SearchMetrics metrics) throws Exception {
+        long start = System.nanoTime();
+        CranfieldSearcher.QueryResult[] results = CranfieldSearcher.runQueries(searcher, queries, maxHits,
+                totalHitsThreshold, null, metrics);
+        if (metrics != null) {
+            metrics.setWallNanos(System.nanoTime() - start);
+            CranfieldSearcher.countMatches(searcher, queries, null, metrics);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,610 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.FeatureField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+public class CranfieldSearcher {
+
+    /*
+     * Main
+     * Select the scorer(s) based on the input model names and output one scoring file per model.
+     * With --models=a,b,c the reader is opened and the queries are parsed only once for all models.
+     * With --qrels=file every run is also evaluated in-process and summarised in eval_<model>.txt;
+     * --noRun then skips writing the run file itself.
+     * With --queryCache=file parsed queries are saved and reused by the next run.
+     * --directory=auto|mmap|nio picks the Directory, --preload maps terms/postings/norms eagerly
+     * (mmap) and --warm reads the whole index once before the first query.
+     * Parse, search and docno fetch latencies are summarised per model on stdout and in
+     * metrics_<model>.json next to the run file.
+     * --totalHitsThreshold=N|max collects with TopScoreDocCollectorManager and stops counting hits
+     * exactly after N, which lets block-max WAND skip blocks that cannot make the top maxHits;
+     * the summary then compares the documents scored with the documents matching.
+     * --searchExecutor=virtual|fixed:N searches the slices of each query in parallel, and
+     * --slices=N cuts the index into N slices of equal document counts (see SlicedIndexSearcher).
+     * --model=impact sums the BM25 scores an index built with CranfieldIndexer --impacts holds
+     * for every term (see BM25Impacts) instead of scoring the content field at query time.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java CranfieldSearcher <indexDir> <queryFile> <outputDir> [--model=vsm|classic|bm25|lm|dfr|impact] [--models=bm25,vsm,...] [--maxHits=N] [--threads=N] [--fields=title:2,abstract:1,...] [--bm25f] [--qrels=file] [--noRun] [--queryCache=file] [--directory=auto|mmap|nio] [--preload] [--warm] [--totalHitsThreshold=N|max] [--searchExecutor=virtual|fixed:N] [--slices=N]");
+            return;
+        }
+
+        final String indexDir  = args[0];
+        final String queryFile = args[1];
+        final String outputDir = args[2];
+
+        List<String> models = new ArrayList<>();
+        Integer maxHits = null;
+        int threads = 1;
+        // empty: query the aggregated "content" field
+        Map<String, Float> fieldBoosts = new LinkedHashMap<>();
+        boolean bm25f = false;
+        String qrelsFile = null;
+        boolean writeRun = true;
+        String queryCacheFile = null;
+        String directoryMode = "auto";
+        boolean preload = false;
+        boolean warm = false;
+        // null: IndexSearcher.search's own default
+        Integer totalHitsThreshold = null;
+        // null: every query runs on a single thread
+        String searchExecutor = null;
+        int slices = 0;
+        for (String a : args) {
+            if (a.startsWith("--model=")) {
+                models.add(a.substring("--model=".length()).toLowerCase(Locale.ROOT));
+            } else if (a.startsWith("--models=")) {
+                for (String m : a.substring("--models=".length()).split(",")) {
+                    if (!m.isBlank()) models.add(m.trim().toLowerCase(Locale.ROOT));
+                }
+            } else if (a.startsWith("--maxHits=")) {
+                maxHits = Integer.parseInt(a.substring("--maxHits=".length()));
+            } else if (a.startsWith("--threads=")) {
+                threads = Math.max(1, Integer.parseInt(a.substring("--threads=".length())));
+            } else if (a.startsWith("--fields=")) {
+                fieldBoosts.putAll(parseFieldBoosts(a.substring("--fields=".length())));
+            } else if (a.equals("--bm25f")) {
+                bm25f = true;
+            } else if (a.startsWith("--qrels=")) {
+                qrelsFile = a.substring("--qrels=".length());
+            } else if (a.equals("--noRun")) {
+                writeRun = false;
+            } else if (a.startsWith("--queryCache=")) {
+                queryCacheFile = a.substring("--queryCache=".length());
+            } else if (a.startsWith("--directory=")) {
+                directoryMode = a.substring("--directory=".length());
+            } else if (a.equals("--preload")) {
+                preload = true;
+            } else if (a.equals("--warm")) {
+                warm = true;
+            } else if (a.startsWith("--totalHitsThreshold=")) {
+                String t = a.substring("--totalHitsThreshold=".length());
+                totalHitsThreshold = t.equals("max") ? Integer.MAX_VALUE : Integer.parseInt(t);
+            } else if (a.startsWith("--searchExecutor=")) {
+                searchExecutor = a.substring("--searchExecutor=".length());
+            } else if (a.startsWith("--slices=")) {
+                slices = Integer.parseInt(a.substring("--slices=".length()));
+            }
+        }
+        if (bm25f && fieldBoosts.isEmpty()) {
+            System.out.println("--bm25f needs --fields, searching the content field instead");
+            bm25f = false;
+        }
+        if (bm25f) {
+            // CombinedFieldQuery rejects weights below 1
+            for (Map.Entry<String, Float> field : fieldBoosts.entrySet()) {
+                if (!(field.getValue() >= 1f)) {
+                    System.out.println("--bm25f needs field weights >= 1, got " + field.getKey() + ":" + field.getValue());
+                    return;
+                }
+            }
+        }
+        // legacy positional model at args[3]
+        if (models.isEmpty() && args.length >= 4 && !args[3].isEmpty() && !args[3].startsWith("--")) {
+            models.add(args[3].toLowerCase(Locale.ROOT));
+        }
+        if (models.isEmpty()) models.add("bm25");
+
+        // legacy positional maxHits at args[4]
+        if (maxHits == null && args.length >= 5 && !args[4].startsWith("--")) {
+            try { maxHits = Integer.parseInt(args[4]); } catch (Exception ignored) {}
+        }
+        if (maxHits == null) maxHits = 1000;
+        if (!writeRun && qrelsFile == null) {
+            System.out.println("--noRun needs --qrels, writing the run files anyway");
+            writeRun = true;
+        }
+        if (slices > 0 && searchExecutor == null) {
+            System.out.println("--slices needs --searchExecutor, searching on a single thread");
+        }
+
+        //Ensure output directory
+        Path outDir = Paths.get(outputDir);
+        Files.createDirectories(outDir);
+
+        //Open index reader once, it is shared by every model
+        Directory directory = IndexDirectories.open(Paths.get(indexDir), directoryMode, preload);
+        if (warm) IndexDirectories.warm(directory);
+        long openStart = System.nanoTime();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        System.out.printf(Locale.ROOT, "Opened %s in %d ms%n", directory.getClass().getSimpleName(),
+                (System.nanoTime() - openStart) / 1_000_000);
+        EnglishAnalyzer analyzer = new EnglishAnalyzer();
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        // intra-query parallelism, separate from the pool that runs queries side by side
+        ExecutorService sliceExecutor = searchExecutor == null ? null : SlicedIndexSearcher.newExecutor(searchExecutor);
+        TrecEvaluator evaluator = qrelsFile == null ? null : TrecEvaluator.load(Paths.get(qrelsFile));
+
+        try {
+            //Read and parse queries once, Query objects do not depend on the Similarity
+            List<String> queries = readCranfieldQueries(queryFile);
+            QueryCache queryCache = queryCacheFile == null ? null : QueryCache.open(Paths.get(queryCacheFile), analyzer);
+            Supplier<QueryFactory> factories = queryFactory(analyzer, fieldBoosts);
+            Supplier<QueryFactory> combinedFactories = () -> q -> combinedFieldQuery(analyzer, fieldBoosts, q);
+            Supplier<QueryFactory> impactFactories = () -> q -> impactQuery(analyzer, q);
+            if (queryCache != null) {
+                factories = cached(queryCache, (fieldBoosts.isEmpty() ? "content" : "fields:" + fieldBoosts), factories);
+                combinedFactories = cached(queryCache, "bm25f:" + fieldBoosts, combinedFactories);
+                impactFactories = cached(queryCache, "impact", impactFactories);
+            }
+            // one parse histogram per query set, so a model only reports the parses of the queries it runs
+            LatencyHistogram parseLatency = new LatencyHistogram();
+            LatencyHistogram combinedLatency = new LatencyHistogram();
+            LatencyHistogram impactLatency = new LatencyHistogram();
+            Query[] parsed = parseQueries(queries, factories, pool, parseLatency);
+            // BM25F combined-field queries only score under BM25, other models keep the per-field queries
+            Query[] combined = bm25f ? parseQueries(queries, combinedFactories, pool, combinedLatency) : null;
+            // precomputed scores exist for the content field only, so --fields does not apply to them
+            Query[] impact = models.contains("impact") ? parseQueries(queries, impactFactories, pool, impactLatency) : null;
+            if (impact != null && FieldInfos.getMergedFieldInfos(reader).fieldInfo(BM25Impacts.FIELD) == null) {
+                System.out.println("The index has no " + BM25Impacts.FIELD + " field, build it with CranfieldIndexer --impacts");
+            }
+            if (queryCache != null) {
+                queryCache.save();
+                System.out.println("Query cache: " + queryCache.hits() + " reused, " + queryCache.misses() + " parsed");
+            }
+
+            for (String model : models) {
+                //Similarity and output filename
+                Model selected = selectModel(model);
+                Path outPath = outDir.resolve(selected.outName());
+
+                IndexSearcher searcher = sliceExecutor == null ? new IndexSearcher(reader)
+                        : new SlicedIndexSearcher(reader, sliceExecutor, slices);
+                searcher.setSimilarity(selected.similarity());
+                if (sliceExecutor != null && model.equals(models.get(0))) {
+                    System.out.println("Searching " + reader.leaves().size() + " segments in "
+                            + searcher.getSlices().length + " slices on " + searchExecutor);
+                }
+
+                //Execute search (possibly on several threads), results are indexed by qid - 1
+                boolean useCombined = combined != null && selected.similarity() instanceof BM25Similarity;
+                boolean useImpact = model.equals("impact");
+                SearchMetrics metrics = new SearchMetrics(useImpact ? impactLatency : useCombined ? combinedLatency : parseLatency);
+                long runStart = System.nanoTime();
+                Query[] toRun = useImpact ? impact : useCombined ? combined : parsed;
+                QueryResult[] results = runQueries(searcher, toRun, maxHits,
+                        totalHitsThreshold, pool, metrics);
+                metrics.setWallNanos(System.nanoTime() - runStart);
+                if (totalHitsThreshold != null) countMatches(searcher, toRun, pool, metrics);
+                metrics.print(model);
+                metrics.writeJson(outDir.resolve(selected.outName().replaceFirst("^run_", "metrics_").replaceFirst("\\.txt$", ".json")), model);
+
+                //Write TREC output in qid order
+                if (writeRun) {
+                    writeRun(outPath, results, model);
+                    System.out.println("Search completed. Output saved to: " + outPath);
+                }
+
+                //Score the run against the qrels without going through the run file
+                if (evaluator != null) {
+                    Path evalPath = outDir.resolve(selected.outName().replaceFirst("^run_", "eval_"));
+                    TrecEvaluator.Evaluation evaluation = evaluate(evaluator, results);
+                    try (PrintStream out = new PrintStream(Files.newOutputStream(evalPath), false, StandardCharsets.UTF_8)) {
+                        evaluation.print(out, "lucene-" + model);
+                    }
+                    System.out.printf(Locale.ROOT, "map = %.4f : P_10 = %.4f : ndcg_cut_10 = %.4f : saved to %s%n",
+                            evaluation.mean("map"), evaluation.mean("P_10"), evaluation.mean("ndcg_cut_10"), evalPath);
+                }
+            }
+        } finally {
+            if (pool != null) pool.shutdownNow();
+            if (sliceExecutor != null) sliceExecutor.shutdownNow();
+            reader.close();
+            directory.close();
+        }
+    }
+
+    /*
+     * "title:2,abstract:1,..." to field -> boost; a field without a boost gets 1.
+     */
+    static Map<String, Float> parseFieldBoosts(String spec) {
+        Map<String, Float> fieldBoosts = new LinkedHashMap<>();
+        for (String f : spec.split(",")) {
+            if (f.isBlank()) continue;
+            int colon = f.indexOf(':');
+            if (colon < 0) fieldBoosts.put(f.trim(), 1f);
+            else fieldBoosts.put(f.substring(0, colon).trim(), Float.parseFloat(f.substring(colon + 1)));
+        }
+        return fieldBoosts;
+    }
+
+    /*
+     * Similarity and run file name of a retrieval model.
+     */
+    private record Model(Similarity similarity, String outName) {}
+
+    /*
+     * Similarity used for a model name (vsm|classic|bm25|lm|dfr).
+     */
+    public static Similarity similarityFor(String model) {
+        return selectModel(model).similarity();
+    }
+
+    /*
+     * Map a model name to its Similarity and output filename.
+     */
+    private static Model selectModel(String model) {
+        switch (model) {
+            case "classic":
+            case "vsm":
+                System.out.println("Selected model: CLASSIC");
+                return new Model(new ClassicSimilarity(), "run_classic.txt"); // treat vsm as classic
+            case "bm25":
+                System.out.println("Selected model: BM25");
+                return new Model(new BM25Similarity(), "run_bm25.txt");
+            case "lm":
+            case "lmdirichlet":
+                System.out.println("Selected model: LMDirichlet");
+                return new Model(new LMDirichletSimilarity(), "run_lm.txt");
+            case "impact":
+                // FeatureField queries score without a Similarity, the scores were computed by BM25 at index time
+                System.out.println("Selected model: BM25 impacts");
+                return new Model(new BM25Similarity(), "run_impact.txt");
+            case "dfr":
+                System.out.println("Selected model: DFR");
+                return new Model(new DFRSimilarity(new BasicModelIF(), new AfterEffectB(), new NormalizationH2()), "run_dfr.txt");
+            default:
+                System.out.println("Unknown model '" + model + "', defaulting to BM25");
+                return new Model(new BM25Similarity(), "run_bm25.txt");
+        }
+    }
+
+    /*
+     * Write TREC lines for every query in qid order.
+     */
+    private static void writeRun(Path outPath, QueryResult[] results, String model) throws IOException {
+        try (TrecRunWriter writer = new TrecRunWriter(outPath, model)) {
+            for (int qid = 1; qid <= results.length; qid++) {
+                QueryResult result = results[qid - 1];
+                if (result == null) continue;
+
+                for (int rank = 0; rank < result.hits().length; rank++) {
+                    // TREC: qid Q0 docno rank score tag
+                    writer.write(qid, result.docnos()[rank], rank + 1, result.hits()[rank].score);
+                }
+            }
+        }
+    }
+
+    /*
+     * Judge every query's hits; results are indexed by qid - 1.
+     */
+    static TrecEvaluator.Evaluation evaluate(TrecEvaluator evaluator, QueryResult[] results) {
+        TrecEvaluator.Evaluation evaluation = evaluator.newEvaluation();
+        for (int qid = 1; qid <= results.length; qid++) {
+            QueryResult result = results[qid - 1];
+            if (result != null) evaluation.add(qid, result.hits(), result.docnos());
+        }
+        return evaluation;
+    }
+
+    private static final Set<String> DOCNO_FIELD = Set.of("docno");
+
+    /*
+     * Hits of one query together with their resolved docno values.
+     */
+    record QueryResult(ScoreDoc[] hits, String[] docnos) {}
+
+    /*
+     * Turns one query text into a Lucene Query; instances need not be thread-safe.
+     */
+    interface QueryFactory {
+        Query create(String qtext) throws Exception;
+    }
+
+    /*
+     * Without field boosts, parse against the aggregated "content" field.
+     * With boosts, expand every term over the listed fields (title:2 OR abstract:1 ...),
+     * which works on indexes built with --noContent.
+     */
+    static Supplier<QueryFactory> queryFactory(Analyzer analyzer, Map<String, Float> fieldBoosts) {
+        if (fieldBoosts.isEmpty()) {
+            return () -> {
+                QueryParser parser = new QueryParser("content", analyzer); // match the indexer’s aggregated field
+                return qtext -> parser.parse(QueryParser.escape(qtext));
+            };
+        }
+        String[] fields = fieldBoosts.keySet().toArray(new String[0]);
+        return () -> {
+            QueryParser parser = new MultiFieldQueryParser(fields, analyzer, fieldBoosts);
+            return qtext -> parser.parse(QueryParser.escape(qtext));
+        };
+    }
+
+    private static Supplier<QueryFactory> cached(QueryCache cache, String mode, Supplier<QueryFactory> factories) {
+        return () -> cache.wrap(mode, factories.get());
+    }
+
+    /*
+     * BM25F-style query: every analyzed term becomes a CombinedFieldQuery that scores the
+     * weighted fields as one combined field; terms are OR-ed together.
+     * CombinedFieldQuery requires weights >= 1.
+     */
+    private static Query combinedFieldQuery(Analyzer analyzer, Map<String, Float> fieldBoosts,
+                                            String qtext) throws IOException {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        try (TokenStream ts = analyzer.tokenStream("content", qtext)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                CombinedFieldQuery.Builder clause = new CombinedFieldQuery.Builder(new BytesRef(term));
+                for (Map.Entry<String, Float> field : fieldBoosts.entrySet()) {
+                    clause.addField(field.getKey(), field.getValue());
+                }
+                query.add(clause.build(), BooleanClause.Occur.SHOULD);
+            }
+            ts.end();
+        }
+        return query.build();
+    }
+
+    /*
+     * Impact query: every analyzed term reads its precomputed BM25 score from the impacts
+     * field and the scores are added up, like the SHOULD clauses of the content query.
+     */
+    private static Query impactQuery(Analyzer analyzer, String qtext) throws IOException {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        try (TokenStream ts = analyzer.tokenStream("content", qtext)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                query.add(FeatureField.newLinearQuery(BM25Impacts.FIELD, term.toString(), 1f), BooleanClause.Occur.SHOULD);
+            }
+            ts.end();
+        }
+        return query.build();
+    }
+
+    /*
+     * Parse every query text into a Lucene Query (null for blank queries).
+     * Factories are not thread-safe, so with a pool each worker keeps its own.
+     * latency, when given, records the parse time of every query.
+     */
+    static Query[] parseQueries(List<String> queries, Supplier<QueryFactory> factories,
+                                        ExecutorService pool, LatencyHistogram latency) throws Exception {
+        Query[] parsed = new Query[queries.size()];
+        if (pool == null) {
+            QueryFactory factory = factories.get();
+            for (int i = 0; i < queries.size(); i++) {
+                parsed[i] = parseQuery(factory, queries.get(i), latency);
+            }
+            return parsed;
+        }
+
+        ThreadLocal<QueryFactory> perThread = ThreadLocal.withInitial(factories);
+        List<Future<Query>> futures = new ArrayList<>(queries.size());
+        for (String qtext : queries) {
+            futures.add(pool.submit(() -> parseQuery(perThread.get(), qtext, latency)));
+        }
+        return collect(futures, parsed);
+    }
+
+    private static Query parseQuery(QueryFactory factory, String qtext, LatencyHistogram latency) throws Exception {
+        if (qtext == null || qtext.isBlank()) return null;
+        long start = System.nanoTime();
+        Query query = factory.create(qtext);
+        if (latency != null) latency.record(System.nanoTime() - start);
+        return query;
+    }
+
+    /*
+     * Run every parsed query against the shared searcher, on the pool when there is one.
+     * Blank queries leave a null slot so the caller can still write in qid order.
+     * totalHitsThreshold and metrics may be null.
+     */
+    static QueryResult[] runQueries(IndexSearcher searcher, Query[] queries, int maxHits, Integer totalHitsThreshold,
+                                            ExecutorService pool, SearchMetrics metrics) throws Exception {
+        QueryResult[] results = new QueryResult[queries.length];
+        if (pool == null) {
+            for (int i = 0; i < queries.length; i++) {
+                results[i] = runQuery(searcher, queries[i], maxHits, totalHitsThreshold, metrics);
+            }
+            return results;
+        }
+
+        List<Future<QueryResult>> futures = new ArrayList<>(queries.length);
+        for (Query query : queries) {
+            futures.add(pool.submit(() -> runQuery(searcher, query, maxHits, totalHitsThreshold, metrics)));
+        }
+        return collect(futures, results);
+    }
+
+    /*
+     * Count the documents every query matches, which exhaustive evaluation would have scored.
+     * Meant to run after the timed searches, so the extra evaluation stays out of their
+     * latencies and QPS.
+     */
+    static void countMatches(IndexSearcher searcher, Query[] queries, ExecutorService pool,
+                             SearchMetrics metrics) throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>(queries.length);
+        for (Query query : queries) {
+            if (query == null) continue;
+            futures.add(pool == null ? CompletableFuture.completedFuture(searcher.count(query))
+                    : pool.submit(() -> searcher.count(query)));
+        }
+        for (Integer count : collect(futures, new Integer[futures.size()])) {
+            metrics.recordMatching(count);
+        }
+    }
+
+    /*
+     * Wait for the futures in submission order and unwrap task failures.
+     */
+    private static <T> T[] collect(List<Future<T>> futures, T[] into) throws Exception {
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                into[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        }
+        return into;
+    }
+
+    /*
+     * Search top N for one query and resolve the docno of each hit.
+     */
+    private static QueryResult runQuery(IndexSearcher searcher, Query query, int maxHits,
+                                        Integer totalHitsThreshold, SearchMetrics metrics) throws IOException {
+        if (query == null) return null;
+
+        long start = System.nanoTime();
+        CountingCollectorManager counting = null;
+        TopDocs topDocs;
+        if (totalHitsThreshold == null) {
+            topDocs = searcher.search(query, maxHits);
+        } else {
+            counting = new CountingCollectorManager(maxHits, totalHitsThreshold);
+            topDocs = searcher.search(query, counting);
+        }
+        long searched = System.nanoTime();
+        ScoreDoc[] hits = topDocs.scoreDocs;
+        String[] docnos = resolveDocnos(searcher, hits);
+        if (metrics != null) {
+            metrics.recordQuery(searched - start, System.nanoTime() - searched, hits.length,
+                    topDocs.totalHits.value(), topDocs.totalHits.relation() == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO);
+            if (counting != null) metrics.recordScored(counting.collected());
+        }
+        return new QueryResult(hits, docnos);
+    }
+
+    /*
+     * Look up docno for every hit.
+     * Hits are visited in docid order, so each segment's docno doc values are read forward once.
+     * Indexes built before docno had doc values fall back to loading the stored field.
+     */
+    private static String[] resolveDocnos(IndexSearcher searcher, ScoreDoc[] hits) throws IOException {
+        // (doc << 32 | rank) sorts by docid and still remembers the rank
+        long[] order = new long[hits.length];
+        for (int rank = 0; rank < hits.length; rank++) {
+            order[rank] = ((long) hits[rank].doc << 32) | rank;
+        }
+        Arrays.sort(order);
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        String[] docnos = new String[hits.length];
+        int leaf = -1;
+        int leafEnd = 0;
+        LeafReaderContext context = null;
+        SortedDocValues values = null;
+        StoredFields storedFields = null;
+        for (long o : order) {
+            int doc = (int) (o >>> 32);
+            int rank = (int) o;
+            while (doc >= leafEnd) {
+                context = leaves.get(++leaf);
+                leafEnd = context.docBase + context.reader().maxDoc();
+                values = context.reader().getSortedDocValues("docno");
+            }
+
+            String docno = null;
+            if (values != null) {
+                if (values.advanceExact(doc - context.docBase)) {
+                    docno = values.lookupOrd(values.ordValue()).utf8ToString();
+                }
+            } else {
+                // StoredFields instances are not thread-safe, take one per query
+                if (storedFields == null) storedFields = searcher.storedFields();
+                docno = storedFields.document(doc, DOCNO_FIELD).get("docno");
+            }
+            // Avoid having docno be empty
+            if (docno == null || docno.isEmpty()) {
+                docno = String.valueOf(doc);
+            }
+            docnos[rank] = docno;
+        }
+        return docnos;
+    }
+
+    /*
+     * Iterate lines in queryFile.
+     * Return list of query texts in order (qid = index + 1).
+     */
+    public static List<String> readCranfieldQueries(String queryFile) throws IOException {
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(queryFile), StandardCharsets.UTF_8))) {
+            String line;
+            StringBuilder cur = null;
+            boolean inW = false;
+
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith(".I")) {
+                    if (cur != null) {
+                        queries.add(cur.toString().trim());
+                    }
+                    cur = new StringBuilder();
+                    inW = false;
+                } else if (line.equals(".W")) {
+                    inW = true;
+                } else if (inW && cur != null) {
+                    if (!line.isEmpty()) {
+                        if (cur.length() > 0) cur.append(' ');
+                        cur.append(line);
+                    }
+                }
+            }
+            if (cur != null) {
+                queries.add(cur.toString().trim());
+            }
+        }
+        return queries;
+    }
+}
+
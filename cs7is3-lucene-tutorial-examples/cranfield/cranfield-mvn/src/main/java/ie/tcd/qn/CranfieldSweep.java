@@ -0,0 +1,270 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+public class CranfieldSweep {
+
+    // measures printed next to the one the configurations are ranked by
+    private static final String[] REPORTED = {"map", "P_10", "ndcg_cut_10", "bpref", "recip_rank"};
+
+    /*
+     * One grid point: a label for the report and a way to build its Similarity.
+     */
+    private record Config(String model, String label, Supplier<Similarity> similarity) {}
+
+    private record Result(Config config, Map<String, Double> means) {}
+
+    /*
+     * Main
+     * Evaluate every point of the BM25 (k1 x b), LM Dirichlet (mu) and DFR
+     * (basic model x after-effect x normalization) grids against the qrels and report the best ones.
+     * Grids are comma lists or from:to:step ranges, e.g. --k1=0.6:2.0:0.2 --mu=500,1000,2000.
+     * The reader is opened and the queries are parsed once; grid points run in parallel on a
+     * fork-join pool and each one searches the shared reader with its own IndexSearcher.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java CranfieldSweep <indexDir> <queryFile> <qrelsFile> [--models=bm25,lm,dfr] [--k1=from:to:step|a,b,...] [--b=...] [--mu=...] [--basicModels=G,IF,In,Ine] [--afterEffects=B,L] [--normalizations=H1,H2,H3,Z] [--c=...] [--metric=map] [--top=N] [--maxHits=N] [--threads=N] [--fields=title:2,abstract:1,...] [--out=file.tsv]");
+            return;
+        }
+
+        final String indexDir  = args[0];
+        final String queryFile = args[1];
+        final String qrelsFile = args[2];
+
+        List<String> models = List.of("bm25", "lm", "dfr");
+        double[] k1 = grid("0.6:2.0:0.2");
+        double[] b = grid("0.3:1.0:0.1");
+        double[] mu = grid("100,250,500,750,1000,1500,2000,2500,3000");
+        String[] basicModels = {"G", "IF", "In", "Ine"};
+        String[] afterEffects = {"B", "L"};
+        String[] normalizations = {"H1", "H2", "H3", "Z"};
+        double[] c = grid("1.0");
+        String metric = "map";
+        int top = 10;
+        int maxHits = 1000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Map<String, Float> fieldBoosts = new LinkedHashMap<>();
+        String out = null;
+        for (String a : args) {
+            if (a.startsWith("--models=")) models = List.of(a.substring("--models=".length()).toLowerCase(Locale.ROOT).split(","));
+            else if (a.startsWith("--k1=")) k1 = grid(a.substring("--k1=".length()));
+            else if (a.startsWith("--b=")) b = grid(a.substring("--b=".length()));
+            else if (a.startsWith("--mu=")) mu = grid(a.substring("--mu=".length()));
+            else if (a.startsWith("--basicModels=")) basicModels = a.substring("--basicModels=".length()).split(",");
+            else if (a.startsWith("--afterEffects=")) afterEffects = a.substring("--afterEffects=".length()).split(",");
+            else if (a.startsWith("--normalizations=")) normalizations = a.substring("--normalizations=".length()).split(",");
+            else if (a.startsWith("--c=")) c = grid(a.substring("--c=".length()));
+            else if (a.startsWith("--metric=")) metric = a.substring("--metric=".length());
+            else if (a.startsWith("--top=")) top = Integer.parseInt(a.substring("--top=".length()));
+            else if (a.startsWith("--maxHits=")) maxHits = Integer.parseInt(a.substring("--maxHits=".length()));
+            else if (a.startsWith("--threads=")) threads = Math.max(1, Integer.parseInt(a.substring("--threads=".length())));
+            else if (a.startsWith("--fields=")) fieldBoosts = CranfieldSearcher.parseFieldBoosts(a.substring("--fields=".length()));
+            else if (a.startsWith("--out=")) out = a.substring("--out=".length());
+        }
+
+        //Expand the grids up front so bad model names fail before any searching
+        List<Config> configs = new ArrayList<>();
+        for (String model : models) {
+            switch (model.trim()) {
+                case "bm25":
+                    for (double k : k1) {
+                        for (double bb : b) {
+                            configs.add(new Config("bm25", String.format(Locale.ROOT, "bm25 k1=%s b=%s", num(k), num(bb)),
+                                    () -> new BM25Similarity((float) k, (float) bb)));
+                        }
+                    }
+                    break;
+                case "lm":
+                    for (double m : mu) {
+                        configs.add(new Config("lm", "lm mu=" + num(m), () -> new LMDirichletSimilarity((float) m)));
+                    }
+                    break;
+                case "dfr":
+                    for (String bm : basicModels) {
+                        for (String ae : afterEffects) {
+                            for (String n : normalizations) {
+                                boolean hasC = n.equals("H1") || n.equals("H2");
+                                for (double cc : hasC ? c : new double[] {Double.NaN}) {
+                                    basicModel(bm);
+                                    afterEffect(ae);
+                                    normalization(n, cc);
+                                    String label = "dfr " + bm + " " + ae + " " + n + (hasC ? " c=" + num(cc) : "");
+                                    configs.add(new Config("dfr", label,
+                                            () -> new DFRSimilarity(basicModel(bm), afterEffect(ae), normalization(n, cc))));
+                                }
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown model to sweep: " + model);
+            }
+        }
+
+        TrecEvaluator evaluator = TrecEvaluator.load(Paths.get(qrelsFile));
+        TrecEvaluator.Evaluation probe = evaluator.newEvaluation();
+        probe.mean(metric); // fails fast on an unknown metric
+
+        long start = System.nanoTime();
+        List<Result> results = new ArrayList<>(configs.size());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Directory directory = FSDirectory.open(Paths.get(indexDir));
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            //Queries do not depend on the Similarity, parse them once for every grid point
+            List<String> queries = CranfieldSearcher.readCranfieldQueries(queryFile);
+            Query[] parsed = CranfieldSearcher.parseQueries(queries,
+                    CranfieldSearcher.queryFactory(new EnglishAnalyzer(), fieldBoosts), null, null);
+
+            final int hitsPerQuery = maxHits;
+            List<Callable<Result>> tasks = new ArrayList<>(configs.size());
+            for (Config config : configs) {
+                tasks.add(() -> {
+                    IndexSearcher searcher = new IndexSearcher(reader);
+                    searcher.setSimilarity(config.similarity().get());
+                    CranfieldSearcher.QueryResult[] hits = CranfieldSearcher.runQueries(searcher, parsed, hitsPerQuery, null, null, null);
+                    return new Result(config, CranfieldSearcher.evaluate(evaluator, hits).means());
+                });
+            }
+            for (Future<Result> future : pool.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        //Best first; the sort is stable so ties keep grid order
+        final String by = metric;
+        results.sort(Comparator.comparingDouble((Result r) -> r.means().get(by)).reversed());
+
+        System.out.printf(Locale.ROOT, "Evaluated %d configurations in %d ms on %d threads, ranked by %s%n",
+                results.size(), elapsedMs, threads, metric);
+        printTop("all models", results, top);
+        for (String model : List.of("bm25", "lm", "dfr")) {
+            List<Result> ofModel = new ArrayList<>();
+            for (Result r : results) if (r.config().model().equals(model)) ofModel.add(r);
+            if (!ofModel.isEmpty() && ofModel.size() < results.size()) printTop(model, ofModel, top);
+        }
+
+        if (out != null) {
+            writeTsv(out, results);
+            System.out.println("All configurations saved to: " + out);
+        }
+    }
+
+    private static void printTop(String title, List<Result> results, int top) {
+        System.out.println();
+        System.out.println("Best " + Math.min(top, results.size()) + " (" + title + "):");
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-32s", "config"));
+        for (String m : REPORTED) header.append(String.format(Locale.ROOT, "%12s", m));
+        System.out.println(header);
+        for (Result r : results.subList(0, Math.min(top, results.size()))) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-32s", r.config().label()));
+            for (String m : REPORTED) line.append(String.format(Locale.ROOT, "%12.4f", r.means().get(m)));
+            System.out.println(line);
+        }
+    }
+
+    /*
+     * One row per configuration with every measure the evaluator knows.
+     */
+    private static void writeTsv(String out, List<Result> results) throws IOException {
+        try (PrintStream ps = new PrintStream(Files.newOutputStream(Paths.get(out)), false, StandardCharsets.UTF_8)) {
+            ps.print("config");
+            for (String m : results.get(0).means().keySet()) ps.print("\t" + m);
+            ps.println();
+            for (Result r : results) {
+                ps.print(r.config().label());
+                for (double v : r.means().values()) ps.printf(Locale.ROOT, "\t%.4f", v);
+                ps.println();
+            }
+        }
+    }
+
+    /*
+     * "a,b,c" or "from:to:step" (inclusive) to the list of values.
+     */
+    static double[] grid(String spec) {
+        if (spec.contains(":")) {
+            String[] parts = spec.split(":");
+            double from = Double.parseDouble(parts[0]);
+            double to = Double.parseDouble(parts[1]);
+            double step = parts.length > 2 ? Double.parseDouble(parts[2]) : 1.0;
+            if (step <= 0) throw new IllegalArgumentException("Grid step must be positive: " + spec);
+            int n = (int) Math.floor((to - from) / step + 1e-9) + 1;
+            double[] values = new double[Math.max(n, 0)];
+            for (int i = 0; i < values.length; i++) {
+                // round away the drift of repeated float steps (0.30000000000000004)
+                values[i] = Math.round((from + i * step) * 1e6) / 1e6;
+            }
+            return values;
+        }
+        String[] parts = spec.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+
+    private static String num(double v) {
+        return v == Math.rint(v) ? String.valueOf((long) v) : String.valueOf(v);
+    }
+
+    private static BasicModel basicModel(String name) {
+        switch (name) {
+            case "G": return new BasicModelG();
+            case "IF": return new BasicModelIF();
+            case "In": return new BasicModelIn();
+            case "Ine": return new BasicModelIne();
+            default: throw new IllegalArgumentException("Unknown DFR basic model: " + name);
+        }
+    }
+
+    private static AfterEffect afterEffect(String name) {
+        switch (name) {
+            case "B": return new AfterEffectB();
+            case "L": return new AfterEffectL();
+            default: throw new IllegalArgumentException("Unknown DFR after-effect: " + name);
+        }
+    }
+
+    /*
+     * H1 and H2 take the swept c; H3 and Z keep Lucene's default parameters.
+     */
+    private static Normalization normalization(String name, double c) {
+        switch (name) {
+            case "H1": return new NormalizationH1((float) c);
+            case "H2": return new NormalizationH2((float) c);
+            case "H3": return new NormalizationH3();
+            case "Z": return new NormalizationZ();
+            default: throw new IllegalArgumentException("Unknown DFR normalization: " + name);
+        }
+    }
+}
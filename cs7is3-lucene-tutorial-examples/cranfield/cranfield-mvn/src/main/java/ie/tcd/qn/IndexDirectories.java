@@ -0,0 +1,82 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+
+/*
+ * Opens an index directory in an explicit mode instead of letting FSDirectory.open pick one,
+ * and optionally pulls the index into the page cache before the first query.
+ */
+final class IndexDirectories {
+
+    // terms dictionary and index, postings, norms; plus compound files, which hold all of
+    // these for small segments
+    private static final Set<String> PRELOAD_EXTENSIONS = Set.of(
+            "tim", "tip", "tmd", "doc", "pos", "pay", "psm", "nvd", "nvm", "cfs");
+
+    private IndexDirectories() {}
+
+    /*
+     * mode: auto (FSDirectory.open), mmap or nio.
+     * preload maps the terms, postings and norms files eagerly (mmap only).
+     */
+    static Directory open(Path path, String mode, boolean preload) throws IOException {
+        switch (mode.toLowerCase(Locale.ROOT)) {
+            case "auto":
+                if (preload) System.out.println("--preload needs --directory=mmap, ignoring it");
+                return FSDirectory.open(path);
+            case "mmap":
+                MMapDirectory mmap = new MMapDirectory(path);
+                if (preload) {
+                    mmap.setPreload((name, context) -> PRELOAD_EXTENSIONS.contains(extension(name)));
+                }
+                return mmap;
+            case "nio":
+                if (preload) System.out.println("--preload needs --directory=mmap, ignoring it");
+                return new NIOFSDirectory(path);
+            default:
+                throw new IllegalArgumentException("Unknown directory mode: " + mode + " (auto|mmap|nio)");
+        }
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+
+    /*
+     * Read every index file once, front to back, so the OS has it cached before the first query.
+     * Logs the files, bytes and time spent.
+     */
+    static long warm(Directory directory) throws IOException {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[1 << 16];
+        long bytes = 0;
+        int files = 0;
+        for (String name : directory.listAll()) {
+            if (name.equals("write.lock")) continue;
+            try (IndexInput in = directory.openInput(name, IOContext.READONCE)) {
+                long remaining = in.length();
+                while (remaining > 0) {
+                    int n = (int) Math.min(buffer.length, remaining);
+                    in.readBytes(buffer, 0, n);
+                    remaining -= n;
+                }
+                bytes += in.length();
+                files++;
+            }
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf(Locale.ROOT, "Warmed %d files, %.1f MB in %d ms%n", files, bytes / 1048576.0, ms);
+        return bytes;
+    }
+}
@@ -0,0 +1,391 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.CompoundDirectory;
+import org.apache.lucene.codecs.lucene103.Lucene103Codec;
+import org.apache.lucene.codecs.lucene90.Lucene90StoredFieldsFormat;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.ByteVectorValues;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesSkipper;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafMetaData;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFieldDataInput;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ * Bytes on disk of an index by file extension (tim = terms, doc = postings, fdt = stored fields, ...).
+ * Compound files are opened and their inner files counted under their own extensions,
+ * so indexes written with and without compound files compare like for like.
+ * Run on its own it also breaks the bytes down by field, to see what an IndexSchema change saves.
+ */
+public final class IndexFootprint {
+
+    // per file extension, the part of a field it holds; the rest (segments, si, fnm, liv) is
+    // per-segment bookkeeping
+    private static final Map<String, String> PARTS = new TreeMap<>(Map.ofEntries(
+            Map.entry("tim", "terms"), Map.entry("tip", "terms"), Map.entry("tmd", "terms"),
+            Map.entry("doc", "postings"), Map.entry("pos", "postings"), Map.entry("pay", "postings"),
+            Map.entry("psm", "postings"),
+            Map.entry("nvd", "norms"), Map.entry("nvm", "norms"),
+            Map.entry("fdt", "stored"), Map.entry("fdx", "stored"), Map.entry("fdm", "stored"),
+            Map.entry("dvd", "docvalues"), Map.entry("dvm", "docvalues"),
+            Map.entry("tvd", "vectors"), Map.entry("tvx", "vectors"), Map.entry("tvm", "vectors"),
+            Map.entry("kdd", "points"), Map.entry("kdi", "points"), Map.entry("kdm", "points")));
+    private static final String[] PART_COLUMNS = {"terms", "postings", "norms", "stored", "docvalues", "vectors", "points", "other"};
+
+    private IndexFootprint() {}
+
+    /*
+     * Main
+     * Print the bytes of <indexDir> by file type, then by field and part (terms, postings, ...).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java IndexFootprint <indexDir>");
+            return;
+        }
+        try (Directory directory = FSDirectory.open(Paths.get(args[0]))) {
+            Map<String, Long> bytes = bytesByExtension(directory);
+            long total = total(bytes);
+            System.out.printf(Locale.ROOT, "%-10s %12s %7s%n", "file", "bytes", "share");
+            for (Map.Entry<String, Long> e : bytes.entrySet()) {
+                System.out.printf(Locale.ROOT, "%-10s %12d %6.1f%%%n", e.getKey(), e.getValue(), 100.0 * e.getValue() / total);
+            }
+            System.out.printf(Locale.ROOT, "%-10s %12d%n", "total", total);
+
+            // each field is compressed and encoded on its own here, so the stored and
+            // bookkeeping bytes do not add up exactly to the index above
+            System.out.println();
+            System.out.println("By field, each field rewritten into a segment of its own:");
+            StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-12s", "field"));
+            for (String part : PART_COLUMNS) header.append(String.format(Locale.ROOT, " %10s", part));
+            System.out.println(header.append(String.format(Locale.ROOT, " %10s %7s", "total", "share")));
+            for (Map.Entry<String, Map<String, Long>> field : bytesByField(directory).entrySet()) {
+                Map<String, Long> parts = new TreeMap<>();
+                for (Map.Entry<String, Long> e : field.getValue().entrySet()) {
+                    String part = PARTS.get(e.getKey());
+                    if (part != null) parts.merge(part, e.getValue(), Long::sum);
+                    else if (!isBookkeeping(e.getKey())) parts.merge("other", e.getValue(), Long::sum);
+                }
+                StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%-12s", field.getKey()));
+                for (String part : PART_COLUMNS) row.append(String.format(Locale.ROOT, " %10d", parts.getOrDefault(part, 0L)));
+                long fieldTotal = total(parts);
+                System.out.println(row.append(String.format(Locale.ROOT, " %10d %6.1f%%", fieldTotal, 100.0 * fieldTotal / total)));
+            }
+        }
+    }
+
+    private static boolean isBookkeeping(String ext) {
+        return ext.equals("segments") || ext.equals("si") || ext.equals("fnm") || ext.equals("liv");
+    }
+
+    static Map<String, Long> bytesByExtension(Directory directory) throws IOException {
+        Map<String, Long> bytes = new TreeMap<>();
+        SegmentInfos infos = SegmentInfos.readLatestCommit(directory);
+        bytes.merge("segments", directory.fileLength(infos.getSegmentsFileName()), Long::sum);
+        for (SegmentCommitInfo commit : infos) {
+            for (String file : commit.files()) {
+                String ext = extension(file);
+                if (ext.equals("cfs") || ext.equals("cfe")) continue;
+                bytes.merge(ext, directory.fileLength(file), Long::sum);
+            }
+            if (commit.info.getUseCompoundFile()) {
+                try (CompoundDirectory cfs = commit.info.getCodec().compoundFormat().getCompoundReader(directory, commit.info)) {
+                    for (String file : cfs.listAll()) {
+                        bytes.merge(extension(file), cfs.fileLength(file), Long::sum);
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /*
+     * Bytes by extension of every field on its own: the live documents are copied into an
+     * in-memory index through a reader that only shows that field, with the stored fields
+     * mode of the source index.
+     */
+    static Map<String, Map<String, Long>> bytesByField(Directory directory) throws IOException {
+        Map<String, Map<String, Long>> byField = new TreeMap<>();
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            Set<String> fields = new TreeSet<>();
+            for (LeafReaderContext leaf : reader.leaves()) {
+                for (FieldInfo info : leaf.reader().getFieldInfos()) fields.add(info.name);
+            }
+            Codec codec = codecOf(directory);
+            for (String field : fields) {
+                List<CodecReader> only = new ArrayList<>();
+                for (LeafReaderContext leaf : reader.leaves()) {
+                    only.add(SlowCodecReaderWrapper.wrap(new SingleFieldReader(leaf.reader(), field)));
+                }
+                try (Directory copy = new ByteBuffersDirectory()) {
+                    IndexWriterConfig iwc = new IndexWriterConfig();
+                    iwc.setCodec(codec);
+                    try (IndexWriter writer = new IndexWriter(copy, iwc)) {
+                        writer.addIndexes(only.toArray(new CodecReader[0]));
+                    }
+                    byField.put(field, bytesByExtension(copy));
+                }
+            }
+        }
+        return byField;
+    }
+
+    /*
+     * The codec to rewrite with: the default one, compressing stored fields for size when
+     * the index was written that way (see IndexSchema).
+     */
+    private static Codec codecOf(Directory directory) throws IOException {
+        for (SegmentCommitInfo commit : SegmentInfos.readLatestCommit(directory)) {
+            String mode = commit.info.getAttribute(Lucene90StoredFieldsFormat.MODE_KEY);
+            if (Lucene90StoredFieldsFormat.Mode.BEST_COMPRESSION.name().equals(mode)) {
+                return new Lucene103Codec(Lucene103Codec.Mode.BEST_COMPRESSION);
+            }
+        }
+        return Codec.getDefault();
+    }
+
+    static long total(Map<String, Long> bytes) {
+        long total = 0;
+        for (long b : bytes.values()) total += b;
+        return total;
+    }
+
+    /*
+     * One row per extension with the size in both indexes and the relative change.
+     */
+    static void printComparison(String beforeLabel, Map<String, Long> before, String afterLabel, Map<String, Long> after) {
+        TreeMap<String, Long> all = new TreeMap<>(before);
+        for (String ext : after.keySet()) all.putIfAbsent(ext, 0L);
+        System.out.printf(Locale.ROOT, "%-10s %12s %12s %8s%n", "file", beforeLabel, afterLabel, "change");
+        for (String ext : all.keySet()) {
+            printRow(ext, before.getOrDefault(ext, 0L), after.getOrDefault(ext, 0L));
+        }
+        printRow("total", total(before), total(after));
+    }
+
+    private static void printRow(String name, long before, long after) {
+        System.out.printf(Locale.ROOT, "%-10s %12d %12d %7.1f%%%n", name, before, after,
+                before == 0 ? 0.0 : 100.0 * (after - before) / before);
+    }
+
+    /*
+     * A segment that only has one field: its terms, norms, doc values, points, vectors and
+     * stored values. The index sort is dropped as it may be on another field.
+     */
+    private static final class SingleFieldReader extends FilterLeafReader {
+        private final String field;
+        private final FieldInfos fieldInfos;
+
+        SingleFieldReader(LeafReader in, String field) {
+            super(in);
+            this.field = field;
+            FieldInfo info = in.getFieldInfos().fieldInfo(field);
+            this.fieldInfos = new FieldInfos(info == null ? new FieldInfo[0] : new FieldInfo[] {info});
+        }
+
+        @Override
+        public FieldInfos getFieldInfos() {
+            return fieldInfos;
+        }
+
+        @Override
+        public LeafMetaData getMetaData() {
+            LeafMetaData meta = super.getMetaData();
+            return new LeafMetaData(meta.createdVersionMajor(), meta.minVersion(), null, meta.hasBlocks());
+        }
+
+        @Override
+        public Terms terms(String name) throws IOException {
+            return field.equals(name) ? super.terms(name) : null;
+        }
+
+        @Override
+        public NumericDocValues getNormValues(String name) throws IOException {
+            return field.equals(name) ? super.getNormValues(name) : null;
+        }
+
+        @Override
+        public NumericDocValues getNumericDocValues(String name) throws IOException {
+            return field.equals(name) ? super.getNumericDocValues(name) : null;
+        }
+
+        @Override
+        public BinaryDocValues getBinaryDocValues(String name) throws IOException {
+            return field.equals(name) ? super.getBinaryDocValues(name) : null;
+        }
+
+        @Override
+        public SortedDocValues getSortedDocValues(String name) throws IOException {
+            return field.equals(name) ? super.getSortedDocValues(name) : null;
+        }
+
+        @Override
+        public SortedNumericDocValues getSortedNumericDocValues(String name) throws IOException {
+            return field.equals(name) ? super.getSortedNumericDocValues(name) : null;
+        }
+
+        @Override
+        public SortedSetDocValues getSortedSetDocValues(String name) throws IOException {
+            return field.equals(name) ? super.getSortedSetDocValues(name) : null;
+        }
+
+        @Override
+        public DocValuesSkipper getDocValuesSkipper(String name) throws IOException {
+            return field.equals(name) ? super.getDocValuesSkipper(name) : null;
+        }
+
+        @Override
+        public PointValues getPointValues(String name) throws IOException {
+            return field.equals(name) ? super.getPointValues(name) : null;
+        }
+
+        @Override
+        public FloatVectorValues getFloatVectorValues(String name) throws IOException {
+            return field.equals(name) ? super.getFloatVectorValues(name) : null;
+        }
+
+        @Override
+        public ByteVectorValues getByteVectorValues(String name) throws IOException {
+            return field.equals(name) ? super.getByteVectorValues(name) : null;
+        }
+
+        @Override
+        public TermVectors termVectors() throws IOException {
+            TermVectors vectors = super.termVectors();
+            return new TermVectors() {
+                @Override
+                public Fields get(int doc) throws IOException {
+                    Fields fields = vectors.get(doc);
+                    if (fields == null || fields.terms(field) == null) return null;
+                    return new FilterFields(fields) {
+                        @Override
+                        public Iterator<String> iterator() {
+                            return Collections.singleton(field).iterator();
+                        }
+
+                        @Override
+                        public Terms terms(String name) throws IOException {
+                            return field.equals(name) ? super.terms(name) : null;
+                        }
+
+                        @Override
+                        public int size() {
+                            return 1;
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public StoredFields storedFields() throws IOException {
+            StoredFields stored = super.storedFields();
+            return new StoredFields() {
+                @Override
+                public void document(int docID, StoredFieldVisitor visitor) throws IOException {
+                    stored.document(docID, new FieldVisitor(visitor));
+                }
+            };
+        }
+
+        private final class FieldVisitor extends StoredFieldVisitor {
+            private final StoredFieldVisitor in;
+
+            FieldVisitor(StoredFieldVisitor in) {
+                this.in = in;
+            }
+
+            @Override
+            public Status needsField(FieldInfo info) throws IOException {
+                return field.equals(info.name) ? in.needsField(info) : Status.NO;
+            }
+
+            @Override
+            public void binaryField(FieldInfo info, StoredFieldDataInput value) throws IOException {
+                in.binaryField(info, value);
+            }
+
+            @Override
+            public void binaryField(FieldInfo info, byte[] value) throws IOException {
+                in.binaryField(info, value);
+            }
+
+            @Override
+            public void stringField(FieldInfo info, String value) throws IOException {
+                in.stringField(info, value);
+            }
+
+            @Override
+            public void intField(FieldInfo info, int value) throws IOException {
+                in.intField(info, value);
+            }
+
+            @Override
+            public void longField(FieldInfo info, long value) throws IOException {
+                in.longField(info, value);
+            }
+
+            @Override
+            public void floatField(FieldInfo info, float value) throws IOException {
+                in.floatField(info, value);
+            }
+
+            @Override
+            public void doubleField(FieldInfo info, double value) throws IOException {
+                in.doubleField(info, value);
+            }
+        }
+
+        @Override
+        public CacheHelper getCoreCacheHelper() {
+            return null;
+        }
+
+        @Override
+        public CacheHelper getReaderCacheHelper() {
+            return null;
+        }
+    }
+
+    private static String extension(String file) {
+        int dot = file.lastIndexOf('.');
+        return dot < 0 ? file : file.substring(dot + 1);
+    }
+}
@@ -0,0 +1,173 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene103.Lucene103Codec;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * How each text field of a Cranfield document is indexed, read from a properties file:
+ *
+ *   # none|docs|freqs|positions
+ *   authors.index=docs
+ *   authors.norms=false
+ *   abstract.stored=false
+ *   # best_speed|best_compression
+ *   storedFields=best_compression
+ *
+ * Fields are title, authors, bib, abstract and content. Anything not set keeps the default
+ * layout: every field with positions and norms, title and abstract stored, stored fields
+ * compressed for speed. A field cannot change type in an existing index, so an --append or
+ * --incremental run with another schema than the index's rebuilds it (see digest()).
+ */
+final class IndexSchema {
+
+    static final String[] FIELDS = {"title", "authors", "bib", "abstract", "content"};
+
+    private final Map<String, FieldType> indexed;
+    private final Map<String, Boolean> stored;
+    private final Lucene103Codec.Mode storedFieldsMode;
+
+    private IndexSchema(Map<String, FieldType> indexed, Map<String, Boolean> stored, Lucene103Codec.Mode storedFieldsMode) {
+        this.indexed = indexed;
+        this.stored = stored;
+        this.storedFieldsMode = storedFieldsMode;
+    }
+
+    static IndexSchema defaults() {
+        return parse(new Properties(), "defaults");
+    }
+
+    static IndexSchema load(Path file) throws IOException {
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(in);
+        }
+        return parse(props, file.toString());
+    }
+
+    private static IndexSchema parse(Properties props, String source) {
+        for (String key : props.stringPropertyNames()) {
+            if (key.equals("storedFields")) continue;
+            int dot = key.lastIndexOf('.');
+            String field = dot < 0 ? key : key.substring(0, dot);
+            String option = dot < 0 ? "" : key.substring(dot + 1);
+            if (!isField(field) || !(option.equals("index") || option.equals("norms") || option.equals("stored"))) {
+                throw new IllegalArgumentException("Unknown schema key in " + source + ": " + key);
+            }
+        }
+
+        Map<String, FieldType> indexed = new LinkedHashMap<>();
+        Map<String, Boolean> stored = new LinkedHashMap<>();
+        for (String field : FIELDS) {
+            IndexOptions options = indexOptions(props.getProperty(field + ".index", "positions"), source);
+            boolean norms = bool(props.getProperty(field + ".norms", "true"), field + ".norms", source);
+            boolean defaultStored = field.equals("title") || field.equals("abstract");
+            stored.put(field, bool(props.getProperty(field + ".stored", Boolean.toString(defaultStored)), field + ".stored", source));
+            if (options == IndexOptions.NONE) continue;
+
+            // stored values are added as separate StoredFields, so the indexed part can come
+            // from a Reader or a cached TokenStream
+            FieldType type = new FieldType();
+            type.setTokenized(true);
+            type.setIndexOptions(options);
+            type.setOmitNorms(!norms);
+            type.freeze();
+            indexed.put(field, type);
+        }
+
+        String mode = props.getProperty("storedFields", "best_speed").trim().toUpperCase(Locale.ROOT);
+        try {
+            return new IndexSchema(indexed, stored, Lucene103Codec.Mode.valueOf(mode));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown storedFields mode in " + source + ": " + mode + " (best_speed|best_compression)");
+        }
+    }
+
+    private static boolean isField(String name) {
+        for (String field : FIELDS) {
+            if (field.equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static IndexOptions indexOptions(String value, String source) {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "none": return IndexOptions.NONE;
+            case "docs": return IndexOptions.DOCS;
+            case "freqs": return IndexOptions.DOCS_AND_FREQS;
+            case "positions": return IndexOptions.DOCS_AND_FREQS_AND_POSITIONS;
+            default:
+                throw new IllegalArgumentException("Unknown index option in " + source + ": " + value + " (none|docs|freqs|positions)");
+        }
+    }
+
+    private static boolean bool(String value, String key, String source) {
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "true": return true;
+            case "false": return false;
+            default:
+                throw new IllegalArgumentException("Expected true or false for " + key + " in " + source + ": " + value);
+        }
+    }
+
+    /*
+     * Type of the indexed part of a field (never stored), null when the field is not indexed.
+     */
+    FieldType indexed(String field) {
+        return indexed.get(field);
+    }
+
+    boolean stored(String field) {
+        return stored.get(field);
+    }
+
+    /*
+     * The default codec unless stored fields are compressed for size.
+     */
+    Codec codec() {
+        return storedFieldsMode == Lucene103Codec.Mode.BEST_SPEED ? Codec.getDefault() : new Lucene103Codec(storedFieldsMode);
+    }
+
+    /*
+     * Hex SHA-256 of describe(), so two schemas with the same layout have the same digest.
+     */
+    String digest() {
+        return HexFormat.of().formatHex(ContentHash.sha256().digest(describe().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /*
+     * One line per field, e.g. "authors    docs, no norms, not stored".
+     */
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (String field : FIELDS) {
+            FieldType type = indexed.get(field);
+            sb.append(String.format(Locale.ROOT, "  %-10s %s%s, %s\n", field,
+                    type == null ? "not indexed" : describe(type.indexOptions()),
+                    type == null ? "" : type.omitNorms() ? ", no norms" : ", norms",
+                    stored.get(field) ? "stored" : "not stored"));
+        }
+        sb.append("  stored fields ").append(storedFieldsMode.name().toLowerCase(Locale.ROOT));
+        return sb.toString();
+    }
+
+    private static String describe(IndexOptions options) {
+        switch (options) {
+            case DOCS: return "docs";
+            case DOCS_AND_FREQS: return "freqs";
+            default: return "positions";
+        }
+    }
+}
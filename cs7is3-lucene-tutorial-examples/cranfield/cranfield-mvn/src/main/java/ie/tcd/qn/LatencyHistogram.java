@@ -0,0 +1,77 @@
+package ie.tcd.qn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free latency histogram in nanoseconds, bucketed like HdrHistogram: values below 32 get a
+ * bucket each, above that every power of two is split into 32 sub-buckets, so a reported value
+ * is within ~3% of the recorded one. record() only does atomic adds on preallocated arrays,
+ * so it can sit on the query path of many threads without allocating.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    // enough buckets for any non-negative long
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // another thread raised max first, retry against its value
+        }
+    }
+
+    private static int bucket(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    // largest value that falls into bucket i
+    private static long highestIn(int i) {
+        if (i < SUB) return i;
+        int shift = i / SUB - 1;
+        long lowest = (long) (SUB | (i % SUB)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = count.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+    /*
+     * Smallest bucket bound that covers the given percentage (0-100] of the recorded values,
+     * capped at the recorded maximum.
+     */
+    long percentile(double percent) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percent / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(highestIn(i), max.get());
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,181 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Parsed queries by (mode, query text), kept in memory and saved to a file so the next run
+ * skips query analysis. Only trees of BooleanQuery, BoostQuery and TermQuery (what the classic
+ * and multi-field parsers produce for plain text) are written to disk; anything else, such as
+ * BM25F's CombinedFieldQuery, is cached for the current run only.
+ * The file is tied to the analyzer fingerprint and starts over when it changes. Thread-safe.
+ */
+final class QueryCache {
+
+    private static final int MAGIC = 0x51525931; // "QRY1"
+    private static final byte TERM = 1, BOOST = 2, BOOLEAN = 3;
+
+    private final Path file;
+    private final String fingerprint;
+    private final Map<String, Query> queries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private QueryCache(Path file, String fingerprint, Map<String, Query> queries) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.queries = queries;
+    }
+
+    static QueryCache open(Path file, StopwordAnalyzerBase analyzer) throws IOException {
+        String fingerprint = TokenStreamCache.fingerprint(analyzer);
+        Map<String, Query> queries = new ConcurrentHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() == MAGIC && in.readUTF().equals(fingerprint)) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    queries.put(key, read(in));
+                }
+            } else {
+                System.out.println("Ignoring query cache for a different analyzer: " + file);
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (EOFException e) {
+            System.out.println("Ignoring truncated query cache: " + file);
+            queries.clear();
+        }
+        return new QueryCache(file, fingerprint, queries);
+    }
+
+    /*
+     * Wrap a query factory so each distinct text is parsed once per mode.
+     * The mode must capture everything besides the analyzer that shapes the query
+     * (target fields, boosts, BM25F or not).
+     */
+    CranfieldSearcher.QueryFactory wrap(String mode, CranfieldSearcher.QueryFactory factory) {
+        return qtext -> {
+            String key = mode + '\u0000' + qtext;
+            Query query = queries.get(key);
+            if (query != null) {
+                hits.increment();
+                return query;
+            }
+            misses.increment();
+            query = factory.create(qtext);
+            queries.put(key, query);
+            return query;
+        };
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /*
+     * Write every query that can be written (and reads back equal) to the cache file.
+     */
+    void save() throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(entries)) {
+            for (Map.Entry<String, Query> e : queries.entrySet()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream entry = new DataOutputStream(bytes)) {
+                    if (!write(entry, e.getValue())) continue;
+                }
+                if (!e.getValue().equals(read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))))) continue;
+                out.writeUTF(e.getKey());
+                bytes.writeTo(out);
+                count++;
+            }
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(fingerprint);
+            out.writeInt(count);
+            entries.writeTo(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * False when the query (or one of its clauses) is of a type the file cannot hold.
+     */
+    private static boolean write(DataOutputStream out, Query query) throws IOException {
+        if (query instanceof TermQuery tq) {
+            out.writeByte(TERM);
+            out.writeUTF(tq.getTerm().field());
+            BytesRef bytes = tq.getTerm().bytes();
+            out.writeInt(bytes.length);
+            out.write(bytes.bytes, bytes.offset, bytes.length);
+            return true;
+        }
+        if (query instanceof BoostQuery bq) {
+            out.writeByte(BOOST);
+            out.writeFloat(bq.getBoost());
+            return write(out, bq.getQuery());
+        }
+        if (query instanceof BooleanQuery bq) {
+            out.writeByte(BOOLEAN);
+            out.writeInt(bq.getMinimumNumberShouldMatch());
+            out.writeInt(bq.clauses().size());
+            for (BooleanClause clause : bq.clauses()) {
+                out.writeByte(clause.occur().ordinal());
+                if (!write(out, clause.query())) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static Query read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TERM: {
+                String field = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new TermQuery(new Term(field, new BytesRef(bytes)));
+            }
+            case BOOST: {
+                float boost = in.readFloat();
+                return new BoostQuery(read(in), boost);
+            }
+            case BOOLEAN: {
+                BooleanQuery.Builder builder = new BooleanQuery.Builder();
+                builder.setMinimumNumberShouldMatch(in.readInt());
+                int clauses = in.readInt();
+                for (int i = 0; i < clauses; i++) {
+                    BooleanClause.Occur occur = BooleanClause.Occur.values()[in.readByte()];
+                    builder.add(read(in), occur);
+                }
+                return builder.build();
+            }
+            default:
+                throw new IOException("Corrupt query cache entry, type " + type);
+        }
+    }
+}
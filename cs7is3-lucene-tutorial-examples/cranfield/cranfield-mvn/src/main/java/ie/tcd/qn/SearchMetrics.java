@@ -0,0 +1,126 @@
+package ie.tcd.qn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Per-phase latencies and counters of one model's search run.
+ * parse covers the query set the model runs, which is parsed once per run and shared by the
+ * models that run the same set;
+ * search is IndexSearcher.search and fetch is resolving the docno of every hit.
+ */
+final class SearchMetrics {
+
+    private static final String[] PHASES = {"parse", "search", "fetch", "query"};
+
+    final LatencyHistogram parse;
+    final LatencyHistogram search = new LatencyHistogram();
+    final LatencyHistogram fetch = new LatencyHistogram();
+    // search + fetch of one query
+    final LatencyHistogram query = new LatencyHistogram();
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder totalHits = new LongAdder();
+    // queries whose total hit count is only a lower bound
+    private final LongAdder totalHitsLowerBound = new LongAdder();
+    // with --totalHitsThreshold: documents that reached the collector vs. all matching documents
+    private final LongAdder scored = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private long wallNanos;
+
+    SearchMetrics(LatencyHistogram parse) {
+        this.parse = parse;
+    }
+
+    void recordQuery(long searchNanos, long fetchNanos, int hitCount, long total, boolean lowerBound) {
+        search.record(searchNanos);
+        fetch.record(fetchNanos);
+        query.record(searchNanos + fetchNanos);
+        queries.increment();
+        hits.add(hitCount);
+        totalHits.add(total);
+        if (lowerBound) totalHitsLowerBound.increment();
+    }
+
+    void recordScored(long scoredDocs) {
+        scored.add(scoredDocs);
+    }
+
+    /*
+     * Counted in a separate pass after the timed run (CranfieldSearcher.countMatches).
+     */
+    void recordMatching(long matchingDocs) {
+        matched.add(matchingDocs);
+    }
+
+    /*
+     * Wall-clock time of the whole run, for QPS.
+     */
+    void setWallNanos(long wallNanos) {
+        this.wallNanos = wallNanos;
+    }
+
+    private double qps() {
+        return wallNanos == 0 ? 0.0 : queries.sum() * 1e9 / wallNanos;
+    }
+
+    private LatencyHistogram phase(String name) {
+        switch (name) {
+            case "parse": return parse;
+            case "search": return search;
+            case "fetch": return fetch;
+            default: return query;
+        }
+    }
+
+    void print(String model) {
+        System.out.printf(Locale.ROOT, "%s: %d queries in %.1f ms (%.1f QPS), %d hits, %d total hits%s%n",
+                model, queries.sum(), wallNanos / 1e6, qps(), hits.sum(), totalHits.sum(),
+                totalHitsLowerBound.sum() > 0 ? " (" + totalHitsLowerBound.sum() + " lower bounds)" : "");
+        if (matched.sum() > 0) {
+            System.out.printf(Locale.ROOT, "  scored %d of %d matching documents (%.1f%%)%n",
+                    scored.sum(), matched.sum(), 100.0 * scored.sum() / matched.sum());
+        }
+        for (String name : PHASES) {
+            LatencyHistogram h = phase(name);
+            System.out.printf(Locale.ROOT, "  %-7s p50 %8.3f ms  p95 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n",
+                    name, ms(h.percentile(50)), ms(h.percentile(95)), ms(h.percentile(99)), ms(h.max()));
+        }
+    }
+
+    void writeJson(Path file, String model) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"model\": \"").append(model.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        json.append("  \"queries\": ").append(queries.sum()).append(",\n");
+        json.append("  \"hits\": ").append(hits.sum()).append(",\n");
+        json.append("  \"totalHits\": ").append(totalHits.sum()).append(",\n");
+        json.append("  \"totalHitsLowerBound\": ").append(totalHitsLowerBound.sum()).append(",\n");
+        if (matched.sum() > 0) {
+            json.append("  \"scoredDocs\": ").append(scored.sum()).append(",\n");
+            json.append("  \"matchingDocs\": ").append(matched.sum()).append(",\n");
+        }
+        json.append(String.format(Locale.ROOT, "  \"wallMs\": %.3f,%n", wallNanos / 1e6));
+        json.append(String.format(Locale.ROOT, "  \"qps\": %.3f,%n", qps()));
+        json.append("  \"latencyMs\": {\n");
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = phase(PHASES[i]);
+            json.append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"mean\": %.4f, \"p50\": %.4f, \"p95\": %.4f, \"p99\": %.4f, \"max\": %.4f}%s%n",
+                    PHASES[i], h.count(), h.mean() / 1e6, ms(h.percentile(50)), ms(h.percentile(95)),
+                    ms(h.percentile(99)), ms(h.max()), i + 1 < PHASES.length ? "," : ""));
+        }
+        json.append("  }\n");
+        json.append("}\n");
+        Files.writeString(file, json, StandardCharsets.UTF_8);
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,77 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * IndexSearcher that searches the segments of one query in parallel on an executor, cut into a
+ * fixed number of slices of (nearly) equal document counts.
+ * Lucene's default policy only starts a new slice after 250k documents or 5 segments, so a small
+ * index like Cranfield would always be searched by a single slice. Here the documents are laid
+ * end to end and cut into equal ranges, splitting a segment between slices where a range ends
+ * inside it; each slice then holds at most one range of any segment.
+ */
+final class SlicedIndexSearcher extends IndexSearcher {
+
+    private final int targetSlices;
+
+    /*
+     * targetSlices <= 0 keeps Lucene's default slicing.
+     */
+    SlicedIndexSearcher(IndexReader reader, ExecutorService executor, int targetSlices) {
+        super(reader, executor);
+        this.targetSlices = targetSlices;
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        if (targetSlices <= 0) return super.slices(leaves);
+
+        long totalDocs = 0;
+        for (LeafReaderContext leaf : leaves) totalDocs += leaf.reader().maxDoc();
+        int n = (int) Math.max(1, Math.min(targetSlices, totalDocs));
+
+        List<LeafSlice> slices = new ArrayList<>(n);
+        List<LeafReaderContextPartition> current = new ArrayList<>();
+        int slice = 0;
+        long start = 0; // global doc offset of the current leaf
+        for (LeafReaderContext leaf : leaves) {
+            int maxDoc = leaf.reader().maxDoc();
+            int from = 0;
+            while (from < maxDoc) {
+                // global doc where the current slice ends
+                long sliceEnd = (slice + 1) * totalDocs / n;
+                int to = (int) Math.min(maxDoc, sliceEnd - start);
+                current.add(from == 0 && to == maxDoc
+                        ? LeafReaderContextPartition.createForEntireSegment(leaf)
+                        : LeafReaderContextPartition.createFromAndTo(leaf, from, to));
+                from = to;
+                if (start + to == sliceEnd) {
+                    slices.add(new LeafSlice(current));
+                    current = new ArrayList<>();
+                    slice++;
+                }
+            }
+            start += maxDoc;
+        }
+        if (!current.isEmpty()) slices.add(new LeafSlice(current));
+        return slices.toArray(new LeafSlice[0]);
+    }
+
+    /*
+     * virtual: a new virtual thread per slice task; fixed:N: a pool of N platform threads.
+     */
+    static ExecutorService newExecutor(String spec) {
+        String s = spec.toLowerCase(Locale.ROOT);
+        if (s.equals("virtual")) return Executors.newVirtualThreadPerTaskExecutor();
+        if (s.startsWith("fixed:")) return Executors.newFixedThreadPool(Math.max(1, Integer.parseInt(s.substring("fixed:".length()))));
+        throw new IllegalArgumentException("Unknown search executor: " + spec + " (virtual|fixed:N)");
+    }
+}
@@ -0,0 +1,248 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.BytesTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * On-disk cache of analyzed token streams, so a rebuild only runs the analyzer on documents whose
+ * text changed. Like CachingTokenFilter, but it survives across runs: an entry holds the terms and
+ * position increments of a document's fields, keyed by a SHA-256 of the field names and texts.
+ * Cached documents are indexed by replaying the tokens as pre-analyzed TokenStream fields.
+ *
+ * There is one file per analyzer fingerprint in the cache directory, so changing the analyzer
+ * (or upgrading Lucene) starts from an empty cache. close() rewrites the file with the entries
+ * used in this run, which drops documents that no longer exist.
+ * Offsets are not cached, which is fine as long as no field indexes offsets (TextField does not).
+ * Thread-safe.
+ */
+final class TokenStreamCache implements Closeable {
+
+    private static final int MAGIC = 0x544b4331; // "TKC1"
+
+    private final Analyzer analyzer;
+    private final String fingerprint;
+    private final Path file;
+    // entries read from the previous run and entries used in this one
+    private final Map<BytesRef, byte[]> previous;
+    private final Map<BytesRef, byte[]> current = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private TokenStreamCache(Analyzer analyzer, String fingerprint, Path file, Map<BytesRef, byte[]> previous) {
+        this.analyzer = analyzer;
+        this.fingerprint = fingerprint;
+        this.file = file;
+        this.previous = previous;
+    }
+
+    /*
+     * Open (or start) the cache for this analyzer in dir.
+     */
+    static TokenStreamCache open(Path dir, StopwordAnalyzerBase analyzer) throws IOException {
+        Files.createDirectories(dir);
+        String fingerprint = fingerprint(analyzer);
+        Path file = dir.resolve("tokens-" + fingerprint + ".bin");
+        return new TokenStreamCache(analyzer, fingerprint, file, read(file, fingerprint));
+    }
+
+    /*
+     * Identifies everything the analysis depends on: the analyzer class, its stop words and the
+     * Lucene version (tokenizer and stemmer behaviour). Sub-classed or otherwise customised
+     * analyzers beyond their stop words need their own fingerprint.
+     */
+    static String fingerprint(StopwordAnalyzerBase analyzer) {
+        List<String> stopwords = new ArrayList<>();
+        for (Object word : analyzer.getStopwordSet()) {
+            stopwords.add(new String((char[]) word));
+        }
+        stopwords.sort(null);
+        MessageDigest digest = ContentHash.sha256();
+        digest.update((analyzer.getClass().getName() + '|' + Version.LATEST + '|' + stopwords)
+                .getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest(), 0, 8);
+    }
+
+    private static Map<BytesRef, byte[]> read(Path file, String fingerprint) throws IOException {
+        Map<BytesRef, byte[]> entries = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(fingerprint)) {
+                System.out.println("Ignoring token cache with an unexpected header: " + file);
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[32];
+                in.readFully(key);
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                entries.put(new BytesRef(key), value);
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (EOFException e) {
+            System.out.println("Ignoring truncated token cache: " + file);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    /*
+     * Tokens of one document. fields[i] is analyzed from the parts in values[i], joined by '\n'
+     * exactly like CranfieldRecordParser.SliceReader feeds them to the analyzer.
+     * The analyzer only runs when no earlier run has seen the same names and texts.
+     */
+    Tokens get(String[] fields, CharSequence[][] values) throws IOException {
+        BytesRef key = ContentHash.of(fields, values);
+        byte[] data = current.get(key);
+        if (data == null) {
+            data = previous.get(key);
+            if (data == null) {
+                misses.increment();
+                data = analyze(fields, values);
+            } else {
+                hits.increment();
+            }
+            current.put(key, data);
+        } else {
+            hits.increment();
+        }
+        return new Tokens(data, fields.length);
+    }
+
+    /*
+     * Entry layout: per field, the byte length of its tokens, then vint position increment,
+     * vint term length and term bytes for each token.
+     */
+    private byte[] analyze(String[] fields, CharSequence[][] values) throws IOException {
+        ByteBuffersDataOutput entry = new ByteBuffersDataOutput();
+        ByteBuffersDataOutput tokens = new ByteBuffersDataOutput();
+        for (int f = 0; f < fields.length; f++) {
+            tokens.reset();
+            try (TokenStream ts = analyzer.tokenStream(fields[f], new CranfieldRecordParser.SliceReader('\n', values[f]))) {
+                TermToBytesRefAttribute term = ts.addAttribute(TermToBytesRefAttribute.class);
+                PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+                ts.reset();
+                while (ts.incrementToken()) {
+                    BytesRef bytes = term.getBytesRef();
+                    tokens.writeVInt(posInc.getPositionIncrement());
+                    tokens.writeVInt(bytes.length);
+                    tokens.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+                }
+                ts.end();
+            }
+            entry.writeVInt(Math.toIntExact(tokens.size()));
+            tokens.copyTo(entry);
+        }
+        return entry.toArrayCopy();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /*
+     * Replace the cache file with this run's entries; written to a temporary file first
+     * so an interrupted run leaves the old cache intact.
+     */
+    @Override
+    public void close() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(fingerprint);
+            out.writeInt(current.size());
+            for (Map.Entry<BytesRef, byte[]> e : current.entrySet()) {
+                out.write(e.getKey().bytes, e.getKey().offset, e.getKey().length);
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * The cached tokens of one document's fields.
+     */
+    static final class Tokens {
+        private final byte[] data;
+        private final int[] starts;
+        private final int[] ends;
+
+        private Tokens(byte[] data, int fields) {
+            this.data = data;
+            this.starts = new int[fields];
+            this.ends = new int[fields];
+            ByteArrayDataInput in = new ByteArrayDataInput(data);
+            for (int f = 0; f < fields; f++) {
+                int length = in.readVInt();
+                starts[f] = in.getPosition();
+                ends[f] = starts[f] + length;
+                in.skipBytes(length);
+            }
+        }
+
+        /*
+         * A new single-use stream over field f's tokens.
+         */
+        TokenStream stream(int f) {
+            return new Replay(data, starts[f], ends[f]);
+        }
+    }
+
+    /*
+     * Replays cached terms and position increments; the indexing chain reads terms through
+     * TermToBytesRefAttribute, so no chars are decoded.
+     */
+    private static final class Replay extends TokenStream {
+        private final BytesTermAttribute term = addAttribute(BytesTermAttribute.class);
+        private final PositionIncrementAttribute posInc = addAttribute(PositionIncrementAttribute.class);
+        private final ByteArrayDataInput in;
+        private final int end;
+        private final BytesRef bytes;
+
+        Replay(byte[] data, int start, int end) {
+            this.in = new ByteArrayDataInput(data, start, end - start);
+            this.end = end;
+            this.bytes = new BytesRef(data, 0, 0);
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (in.getPosition() >= end) return false;
+            clearAttributes();
+            posInc.setPositionIncrement(in.readVInt());
+            bytes.length = in.readVInt();
+            bytes.offset = in.getPosition();
+            in.skipBytes(bytes.length);
+            term.setBytesRef(bytes);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package ie.tcd.qn;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * In-process replacement for the trec_eval measures a.sh reports.
+ * The qrels file ("qid 0 docno rel") is loaded once into int arrays keyed by qid and docno,
+ * and hits are judged straight from the search results, without writing and re-reading a run file.
+ * Results follow trec_eval 9.x with its default options: hits are re-ranked by their printed
+ * (%.6f) score with ties broken by docno in descending strcmp order, rel >= 1 is relevant,
+ * and averages are over queries that have both hits and qrels.
+ * Docnos must be numeric, as they are in Cranfield.
+ */
+public final class TrecEvaluator {
+
+    // trec_eval's default cutoffs for P, recall and ndcg_cut
+    private static final int[] CUTOFFS = {5, 10, 15, 20, 30, 100, 200, 500, 1000};
+    private static final double MIN_GEO_MEAN = 0.00001;
+    private static final int NOT_JUDGED = -1;
+
+    // measures in trec_eval's output order; the cutoff measures follow
+    private static final String[] SINGLE = {"map", "gm_map", "Rprec", "bpref", "recip_rank"};
+    private static final String[] NAMES = names();
+
+    private static final int MAP = 0, GM_MAP = 1, RPREC = 2, BPREF = 3, RECIP_RANK = 4;
+    private static final int P = SINGLE.length;
+    private static final int RECALL = P + CUTOFFS.length;
+    private static final int NDCG = RECALL + CUTOFFS.length;
+
+    /*
+     * Judgements of one query, sorted by docno.
+     */
+    private record Judged(int[] docnos, int[] rels, int numRel, int numNonRel, double[] idealDcg) {
+
+        int rel(int docno) {
+            int i = Arrays.binarySearch(docnos, docno);
+            return i < 0 ? NOT_JUDGED : rels[i];
+        }
+    }
+
+    private final Map<Integer, Judged> qrels;
+
+    private TrecEvaluator(Map<Integer, Judged> qrels) {
+        this.qrels = qrels;
+    }
+
+    /*
+     * Read a qrels file into per-query docno/rel arrays.
+     */
+    public static TrecEvaluator load(Path qrelsFile) throws IOException {
+        Map<Integer, List<int[]>> byQuery = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(qrelsFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 4) continue;
+                try {
+                    int qid = Integer.parseInt(parts[0]);
+                    int docno = Integer.parseInt(parts[2]);
+                    int rel = Integer.parseInt(parts[3]);
+                    byQuery.computeIfAbsent(qid, q -> new ArrayList<>()).add(new int[] {docno, rel});
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad qrels line: " + line, e);
+                }
+            }
+        }
+
+        Map<Integer, Judged> qrels = new HashMap<>();
+        for (Map.Entry<Integer, List<int[]>> e : byQuery.entrySet()) {
+            List<int[]> pairs = e.getValue();
+            pairs.sort(Comparator.comparingInt(p -> p[0]));
+            int[] docnos = new int[pairs.size()];
+            int[] rels = new int[pairs.size()];
+            int maxRel = 0;
+            for (int i = 0; i < pairs.size(); i++) {
+                docnos[i] = pairs.get(i)[0];
+                rels[i] = pairs.get(i)[1];
+                maxRel = Math.max(maxRel, rels[i]);
+            }
+
+            int[] levels = new int[maxRel + 1];
+            for (int rel : rels) {
+                if (rel >= 0) levels[rel]++;
+            }
+            int numRel = 0;
+            for (int rel = 1; rel < levels.length; rel++) numRel += levels[rel];
+            qrels.put(e.getKey(), new Judged(docnos, rels, numRel, levels[0], idealDcg(levels)));
+        }
+        return new TrecEvaluator(qrels);
+    }
+
+    /*
+     * Ideal DCG at every cutoff: the judged gains sorted from the highest level down.
+     */
+    private static double[] idealDcg(int[] levels) {
+        double[] ideal = new double[CUTOFFS.length];
+        double dcg = 0.0;
+        int rank = 0;
+        int c = 0;
+        for (int level = levels.length - 1; level > 0; level--) {
+            for (int n = 0; n < levels[level]; n++) {
+                while (c < CUTOFFS.length && rank == CUTOFFS[c]) ideal[c++] = dcg;
+                dcg += level / log2(rank + 2);
+                rank++;
+            }
+        }
+        while (c < CUTOFFS.length) ideal[c++] = dcg;
+        return ideal;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    private static String[] names() {
+        List<String> names = new ArrayList<>(Arrays.asList(SINGLE));
+        for (String prefix : new String[] {"P_", "recall_", "ndcg_cut_"}) {
+            for (int cutoff : CUTOFFS) names.add(prefix + cutoff);
+        }
+        return names.toArray(new String[0]);
+    }
+
+    public Evaluation newEvaluation() {
+        return new Evaluation();
+    }
+
+    /*
+     * Accumulates the measures of one run, query by query. Not thread-safe.
+     */
+    public final class Evaluation {
+
+        private final double[] sums = new double[NAMES.length];
+        private final double[] values = new double[NAMES.length];
+        private int numQ;
+        private long numRet;
+        private long numRel;
+        private long numRelRet;
+
+        private Evaluation() {}
+
+        /*
+         * Judge the hits of one query; docnos[i] is the docno of hits[i].
+         * Queries without hits or without qrels are not counted, like trec_eval.
+         */
+        public void add(int qid, ScoreDoc[] hits, String[] docnos) {
+            Judged judged = qrels.get(qid);
+            if (judged == null || hits.length == 0) return;
+
+            int[] rels = rankedRels(judged, hits, docnos);
+            Arrays.fill(values, 0.0);
+
+            int relSoFar = 0;
+            int nonRelSoFar = 0;
+            int rprecCut = Math.min(rels.length, judged.numRel());
+            int c = 0;
+            double ap = 0.0, bpref = 0.0, dcg = 0.0;
+            for (int i = 0; i < rels.length; i++) {
+                while (c < CUTOFFS.length && i == CUTOFFS[c]) cutoff(judged, c++, relSoFar, dcg);
+                if (i == rprecCut) values[RPREC] = relSoFar;
+
+                int rel = rels[i];
+                if (rel >= 1) {
+                    relSoFar++;
+                    ap += (double) relSoFar / (i + 1);
+                    if (relSoFar == 1) values[RECIP_RANK] = 1.0 / (i + 1);
+                    dcg += rel / log2(i + 2);
+                    bpref += nonRelSoFar == 0 ? 1.0
+                            : 1.0 - (double) Math.min(nonRelSoFar, judged.numRel())
+                                    / Math.min(judged.numNonRel(), judged.numRel());
+                } else if (rel == 0) {
+                    nonRelSoFar++;
+                }
+            }
+            while (c < CUTOFFS.length) cutoff(judged, c++, relSoFar, dcg);
+            if (rprecCut == rels.length) values[RPREC] = relSoFar;
+
+            if (judged.numRel() > 0) {
+                values[MAP] = ap / judged.numRel();
+                values[RPREC] /= judged.numRel();
+                values[BPREF] = bpref / judged.numRel();
+            }
+            values[GM_MAP] = Math.log(Math.max(values[MAP], MIN_GEO_MEAN));
+
+            for (int m = 0; m < values.length; m++) sums[m] += values[m];
+            numQ++;
+            numRet += rels.length;
+            numRel += judged.numRel();
+            numRelRet += relSoFar;
+        }
+
+        private void cutoff(Judged judged, int c, int relSoFar, double dcg) {
+            values[P + c] = (double) relSoFar / CUTOFFS[c];
+            values[RECALL + c] = judged.numRel() > 0 ? (double) relSoFar / judged.numRel() : 0.0;
+            values[NDCG + c] = judged.idealDcg()[c] > 0 ? dcg / judged.idealDcg()[c] : dcg;
+        }
+
+        /*
+         * Mean of a measure over the evaluated queries, by its trec_eval name (e.g. "map", "P_10").
+         */
+        public double mean(String measure) {
+            for (int m = 0; m < NAMES.length; m++) {
+                if (NAMES[m].equals(measure)) return mean(m);
+            }
+            throw new IllegalArgumentException("Unknown measure: " + measure);
+        }
+
+        private double mean(int m) {
+            if (numQ == 0) return 0.0;
+            return m == GM_MAP ? Math.exp(sums[m] / numQ) : sums[m] / numQ;
+        }
+
+        public int numQueries() {
+            return numQ;
+        }
+
+        /*
+         * Every measure by name, in trec_eval's order.
+         */
+        public Map<String, Double> means() {
+            Map<String, Double> means = new LinkedHashMap<>();
+            for (int m = 0; m < NAMES.length; m++) means.put(NAMES[m], mean(m));
+            return means;
+        }
+
+        /*
+         * Print the summary lines the way trec_eval does.
+         */
+        public void print(PrintStream out, String runid) {
+            out.printf(Locale.ROOT, "%-22s\tall\t%s%n", "runid", runid);
+            out.printf(Locale.ROOT, "%-22s\tall\t%d%n", "num_q", numQ);
+            out.printf(Locale.ROOT, "%-22s\tall\t%d%n", "num_ret", numRet);
+            out.printf(Locale.ROOT, "%-22s\tall\t%d%n", "num_rel", numRel);
+            out.printf(Locale.ROOT, "%-22s\tall\t%d%n", "num_rel_ret", numRelRet);
+            for (int m = 0; m < NAMES.length; m++) {
+                out.printf(Locale.ROOT, "%-22s\tall\t%6.4f%n", NAMES[m], mean(m));
+            }
+        }
+    }
+
+    /*
+     * Relevance of the hits in trec_eval's order: printed score descending, then docno descending.
+     */
+    private static int[] rankedRels(Judged judged, ScoreDoc[] hits, String[] docnos) {
+        Integer[] order = new Integer[hits.length];
+        double[] sims = new double[hits.length];
+        boolean sorted = true;
+        for (int i = 0; i < hits.length; i++) {
+            order[i] = i;
+            sims[i] = TrecRunWriter.printedScore(hits[i].score);
+            if (i > 0 && (sims[i] > sims[i - 1]
+                    || (sims[i] == sims[i - 1] && docnos[i].compareTo(docnos[i - 1]) > 0))) {
+                sorted = false;
+            }
+        }
+        // Lucene breaks score ties by docid, so equal scores usually need a re-sort
+        if (!sorted) {
+            Arrays.sort(order, (a, b) -> {
+                int cmp = Double.compare(sims[b], sims[a]);
+                return cmp != 0 ? cmp : docnos[b].compareTo(docnos[a]);
+            });
+        }
+
+        int[] rels = new int[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            rels[i] = judged.rel(parseDocno(docnos[order[i]]));
+        }
+        return rels;
+    }
+
+    private static int parseDocno(String docno) {
+        try {
+            return Integer.parseInt(docno);
+        } catch (NumberFormatException e) {
+            return Integer.MIN_VALUE; // never judged
+        }
+    }
+}
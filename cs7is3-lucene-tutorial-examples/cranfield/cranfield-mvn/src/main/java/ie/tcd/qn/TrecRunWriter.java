@@ -0,0 +1,174 @@
+package ie.tcd.qn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/*
+ * Writes TREC run lines "qid Q0 docno rank score tag" without String.format.
+ * Numbers are formatted straight into a reusable byte buffer that is written to a FileChannel
+ * in large chunks. The output is byte-identical to
+ *   String.format(Locale.ROOT, "%d Q0 %s %d %.6f lucene-%s%n", qid, docno, rank, score, model)
+ * Not thread-safe; use one writer per run file.
+ */
+public final class TrecRunWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] Q0 = " Q0 ".getBytes(StandardCharsets.US_ASCII);
+
+    // |score| below this is formatted on the fast path, larger values fall back to String.format
+    private static final double FAST_LIMIT = 1e6;
+    // how close to a rounding tie (in units of 1e-6) the fast path refuses to decide
+    private static final double TIE_WINDOW = 1e-3;
+
+    private final FileChannel channel;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final ByteBuffer wrapped = ByteBuffer.wrap(buf);
+    private final byte[] suffix;
+    private int pos;
+
+    public TrecRunWriter(Path path, String model) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // %n in the old format string is the platform line separator
+        this.suffix = (" lucene-" + model + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Append one line; rank is 1-based as written.
+     */
+    public void write(int qid, String docno, int rank, float score) throws IOException {
+        // digits of two ints, docno (at most 3 bytes per char), the score and the fixed parts
+        int needed = 11 + Q0.length + 3 * docno.length() + 1 + 11 + 1 + 40 + suffix.length;
+        if (BUFFER_SIZE - pos < needed) {
+            flush();
+            if (needed > BUFFER_SIZE) {
+                throw new IOException("TREC line too long for docno " + docno);
+            }
+        }
+
+        putInt(qid);
+        put(Q0);
+        putDocno(docno);
+        buf[pos++] = ' ';
+        putInt(rank);
+        buf[pos++] = ' ';
+        putScore(score);
+        put(suffix);
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void putDocno(String docno) {
+        for (int i = 0; i < docno.length(); i++) {
+            char c = docno.charAt(i);
+            if (c >= 0x80) {
+                put(docno.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        for (int i = 0; i < docno.length(); i++) {
+            buf[pos++] = (byte) docno.charAt(i);
+        }
+    }
+
+    private void putInt(long value) {
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        putDigits(value, 1);
+    }
+
+    /*
+     * Decimal digits of a non-negative value, left-padded with zeros to minDigits.
+     */
+    private void putDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        digits = Math.max(digits, minDigits);
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        pos += digits;
+    }
+
+    /*
+     * %.6f of a float. Formatter rounds the float's (double) decimal digits half-up, which is
+     * the same as rounding value * 1e6 unless it lies right next to a .5 tie; those rare cases
+     * (and huge or non-finite values) go through String.format itself.
+     */
+    private void putScore(float score) {
+        long rounded = roundMicros(score);
+        if (rounded < 0) {
+            fallback(score);
+            return;
+        }
+
+        if (Double.compare(score, 0.0) < 0) {
+            buf[pos++] = '-';
+        }
+        putDigits(rounded / 1_000_000, 1);
+        buf[pos++] = '.';
+        putDigits(rounded % 1_000_000, 6);
+    }
+
+    /*
+     * The score as trec_eval reads it back from the run file, i.e. the value of its %.6f text.
+     */
+    static double printedScore(float score) {
+        long rounded = roundMicros(score);
+        if (rounded < 0) {
+            return Double.parseDouble(String.format(Locale.ROOT, "%.6f", score));
+        }
+        double value = rounded / 1e6;
+        return Double.compare(score, 0.0) < 0 ? -value : value;
+    }
+
+    /*
+     * |score| * 1e6 rounded half-up, or -1 when String.format has to decide.
+     */
+    private static long roundMicros(float score) {
+        double abs = Math.abs((double) score);
+        if (!(abs < FAST_LIMIT)) {
+            return -1;
+        }
+        double scaled = abs * 1e6;
+        double floor = Math.floor(scaled);
+        double frac = scaled - floor;
+        if (Math.abs(frac - 0.5) < TIE_WINDOW) {
+            return -1;
+        }
+        return (long) floor + (frac > 0.5 ? 1 : 0);
+    }
+
+    private void fallback(float score) {
+        put(String.format(Locale.ROOT, "%.6f", score).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public void flush() throws IOException {
+        wrapped.clear().limit(pos);
+        while (wrapped.hasRemaining()) {
+            channel.write(wrapped);
+        }
+        pos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -1,9 +1,27 @@
 package ie.tcd.dalyc24;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.math.BigInteger;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 
@@ -13,8 +31,19 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
  
@@ -23,6 +52,35 @@ public class CreateIndex
 	// Directory where the search index will be saved
 	private static String INDEX_DIRECTORY = "../index";
 
+	// In --stream mode the writer is flushed every time this many bytes of
+	// input have been added, override with --batchMB=N
+	private static long BATCH_MB = 64;
+
+	// With --sortBy=filename every segment keeps its documents sorted by
+	// filename (an index sort), so docids follow the path order and files
+	// from the same directory sit next to each other in the postings
+	private static boolean SORT_BY_FILENAME = false;
+
+	// Fingerprints of the files already in the index, keyed by filename;
+	// only loaded with --incremental
+	private static Map<String, Fingerprint> known = null;
+
+	// What --incremental did, printed at the end
+	private static int added = 0, updated = 0, unchanged = 0, deleted = 0;
+
+	// Content hash and modification time of an indexed file
+	private static class Fingerprint
+	{
+		final String hash;
+		final long mtime;
+
+		Fingerprint(String hash, long mtime)
+		{
+			this.hash = hash;
+			this.mtime = mtime;
+		}
+	}
+
 	public static void main(String[] args) throws IOException
 	{
 		// Make sure we were given something to index
@@ -32,6 +90,39 @@ public class CreateIndex
             System.exit(1);            
         }
 
+		// With --append the existing index is kept and files are replaced by
+		// filename, so a running searcher only has to pick up the changes
+		boolean append = false;
+		// With --stream directories are walked and files are read through a
+		// Reader, so memory no longer grows with the size of the corpus
+		boolean stream = false;
+		// With --incremental only new or changed files are (re-)indexed and
+		// files that no longer exist are removed from the index
+		boolean incremental = false;
+		ArrayList<String> files = new ArrayList<String>();
+		for (String arg : args)
+		{
+			if (arg.equals("--append"))
+				append = true;
+			else if (arg.equals("--stream"))
+				stream = true;
+			else if (arg.equals("--incremental"))
+				incremental = true;
+			else if (arg.startsWith("--batchMB="))
+				BATCH_MB = Long.parseLong(arg.substring("--batchMB=".length()));
+			else if (arg.startsWith("--sortBy="))
+			{
+				if (!arg.equals("--sortBy=filename"))
+				{
+					System.out.println("Only --sortBy=filename is supported");
+					System.exit(1);
+				}
+				SORT_BY_FILENAME = true;
+			}
+			else
+				files.add(arg);
+		}
+
 		// Analyzer that is used to process TextField
 		Analyzer analyzer = new StandardAnalyzer();
 		
@@ -41,31 +132,254 @@ public class CreateIndex
 		// Open the directory that contains the search index
 		Directory directory = FSDirectory.open(Paths.get(INDEX_DIRECTORY));
 
+		// Incremental runs update the existing index in place
+		if (incremental)
+		{
+			append = true;
+			known = loadFingerprints(directory);
+		}
+
 		// Set up an index writer to add process and save documents to the index
 		IndexWriterConfig config = new IndexWriterConfig(analyzer);
-		config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+		config.setOpenMode(append
+			? IndexWriterConfig.OpenMode.CREATE_OR_APPEND
+			: IndexWriterConfig.OpenMode.CREATE);
+		if (stream)
+			config.setRAMBufferSizeMB(BATCH_MB);
+		// Flushes and merges write every segment in this order; an existing
+		// index can only be appended to with the sort it was created with
+		if (SORT_BY_FILENAME)
+			config.setIndexSort(new Sort(new SortField("filename", SortField.Type.STRING)));
 		IndexWriter iwriter = new IndexWriter(directory, config);
+
+		if (stream)
+		{
+			for (String arg : files)
+				indexStreaming(iwriter, Paths.get(arg), append);
+
+			// Commit everything and close
+			finishIncremental(iwriter);
+			iwriter.close();
+			directory.close();
+			return;
+		}
 		
-		for (String arg : args)
+		for (String arg : files)
 		{
 			// Load the contents of the file
+			byte[] bytes = Files.readAllBytes(Paths.get(arg));
+			String hash = null;
+			if (known != null)
+			{
+				hash = hash(bytes);
+				if (unchanged(iwriter, arg, hash, Files.getLastModifiedTime(Paths.get(arg)).toMillis()))
+					continue;
+			}
 			System.out.printf("Indexing \"%s\"\n", arg);
-			String content = new String(Files.readAllBytes(Paths.get(arg)));
+			String content = new String(bytes);
 
 			// Create a new document and add the file's contents
 			Document doc = new Document();
-			doc.add(new StringField("filename", arg, Field.Store.YES));
+			addFilename(doc, arg);
 			doc.add(new TextField("content", content, Field.Store.YES));
+			if (hash != null)
+				addFingerprint(doc, hash, Files.getLastModifiedTime(Paths.get(arg)).toMillis());
 
-			// Add the file to our linked list
-			documents.add(doc);
+			// Replace any earlier version of this file when appending,
+			// otherwise add the file to our linked list
+			if (append)
+				iwriter.updateDocument(new Term("filename", arg), doc);
+			else
+				documents.add(doc);
 		}
 
 		// Write all the documents in the linked list to the search index
 		iwriter.addDocuments(documents);
 
 		// Commit everything and close
+		finishIncremental(iwriter);
 		iwriter.close();
 		directory.close();
 	}
+
+	// Bytes of input added since the writer was last flushed
+	private static long pendingBytes = 0;
+
+	// Walk a file or directory and add every regular file one at a time.
+	// The content field is fed from a Reader, so it is analyzed while being
+	// read and never held as a String (and therefore not stored either).
+	private static void indexStreaming(IndexWriter iwriter, Path root, boolean append) throws IOException
+	{
+		try (Stream<Path> paths = Files.walk(root))
+		{
+			Iterator<Path> it = paths.iterator();
+			while (it.hasNext())
+			{
+				Path path = it.next();
+				if (!Files.isRegularFile(path))
+					continue;
+
+				String filename = path.toString();
+				long mtime = Files.getLastModifiedTime(path).toMillis();
+				String hash = null;
+				if (known != null)
+				{
+					// a known file with the same mtime is not read at all
+					Fingerprint old = known.get(filename);
+					if (old != null && old.mtime == mtime)
+					{
+						unchanged(iwriter, filename, old.hash, mtime);
+						continue;
+					}
+					hash = hash(path);
+					if (unchanged(iwriter, filename, hash, mtime))
+						continue;
+				}
+
+				System.out.printf("Indexing \"%s\"\n", filename);
+				try (Reader reader = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8))
+				{
+					Document doc = new Document();
+					addFilename(doc, filename);
+					doc.add(new TextField("content", reader));
+					if (hash != null)
+						addFingerprint(doc, hash, mtime);
+
+					if (append)
+						iwriter.updateDocument(new Term("filename", filename), doc);
+					else
+						iwriter.addDocument(doc);
+				}
+
+				// Write the buffered documents out once the batch budget is used up
+				pendingBytes += Files.size(path);
+				if (pendingBytes >= BATCH_MB * 1024 * 1024)
+				{
+					iwriter.flush();
+					pendingBytes = 0;
+				}
+			}
+		}
+	}
+
+	// The filename is the document's key; the index sort reads it from doc
+	// values, which are only written when sorting
+	private static void addFilename(Document doc, String filename)
+	{
+		doc.add(new StringField("filename", filename, Field.Store.YES));
+		if (SORT_BY_FILENAME)
+			doc.add(new SortedDocValuesField("filename", new BytesRef(filename)));
+	}
+
+	private static final Set<String> FINGERPRINT_FIELDS =
+		new HashSet<String>(Arrays.asList("filename", "fingerprint"));
+
+	// Read filename, hash and mtime of every live document that has a
+	// fingerprint. Documents indexed without --incremental have none and
+	// are simply indexed again.
+	private static Map<String, Fingerprint> loadFingerprints(Directory directory) throws IOException
+	{
+		Map<String, Fingerprint> fingerprints = new HashMap<String, Fingerprint>();
+		if (!DirectoryReader.indexExists(directory))
+			return fingerprints;
+
+		try (DirectoryReader reader = DirectoryReader.open(directory))
+		{
+			Bits liveDocs = MultiBits.getLiveDocs(reader);
+			NumericDocValues mtimes = MultiDocValues.getNumericValues(reader, "mtime");
+			for (int i = 0; i < reader.maxDoc(); i++)
+			{
+				if (liveDocs != null && !liveDocs.get(i))
+					continue;
+				if (mtimes == null || !mtimes.advanceExact(i))
+					continue;
+				Document doc = reader.document(i, FINGERPRINT_FIELDS);
+				fingerprints.put(doc.get("filename"), new Fingerprint(doc.get("fingerprint"), mtimes.longValue()));
+			}
+		}
+		return fingerprints;
+	}
+
+	// The stored hash identifies the content; the mtime is a doc value so a
+	// touched but unchanged file only needs a cheap doc values update
+	private static void addFingerprint(Document doc, String hash, long mtime)
+	{
+		doc.add(new StringField("fingerprint", hash, Field.Store.YES));
+		doc.add(new NumericDocValuesField("mtime", mtime));
+	}
+
+	// True when the index already holds this content for the file. Also
+	// records the file as seen, and counts it as added or updated otherwise.
+	private static boolean unchanged(IndexWriter iwriter, String filename, String hash, long mtime) throws IOException
+	{
+		Fingerprint old = known.remove(filename);
+		if (old == null)
+		{
+			added++;
+			return false;
+		}
+		if (!old.hash.equals(hash))
+		{
+			updated++;
+			return false;
+		}
+		if (old.mtime != mtime)
+			iwriter.updateNumericDocValue(new Term("filename", filename), "mtime", mtime);
+		unchanged++;
+		return true;
+	}
+
+	// Files that were indexed before but no longer exist are deleted.
+	// Files that still exist but were not passed in this time are kept.
+	private static void finishIncremental(IndexWriter iwriter) throws IOException
+	{
+		if (known == null)
+			return;
+
+		for (String filename : known.keySet())
+		{
+			if (!Files.exists(Paths.get(filename)))
+			{
+				System.out.printf("Removing \"%s\"\n", filename);
+				iwriter.deleteDocuments(new Term("filename", filename));
+				deleted++;
+			}
+		}
+		System.out.printf("%d added : %d updated : %d unchanged : %d deleted\n", added, updated, unchanged, deleted);
+	}
+
+	private static String hash(byte[] bytes)
+	{
+		return toHex(sha256().digest(bytes));
+	}
+
+	private static String hash(Path path) throws IOException
+	{
+		MessageDigest digest = sha256();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest))
+		{
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1)
+			{
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String toHex(byte[] digest)
+	{
+		return String.format("%064x", new BigInteger(1, digest));
+	}
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
 }
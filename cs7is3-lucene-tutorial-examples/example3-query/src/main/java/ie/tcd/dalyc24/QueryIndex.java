@@ -12,6 +12,10 @@ import org.apache.lucene.document.Document;
 
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
 
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.DirectoryReader;
@@ -32,10 +36,27 @@ public class QueryIndex
 	// Limit the number of search results we get
 	private static int MAX_RESULTS = 10;
 
+	// --directory=auto|mmap|nio, --preload (mmap only) and --warm
+	private static String DIRECTORY_MODE = "auto";
+	private static boolean PRELOAD = false;
+	private static boolean WARM = false;
+
 	public static void main(String[] args) throws IOException
 	{
+		for (String arg : args)
+		{
+			if (arg.startsWith("--directory="))
+				DIRECTORY_MODE = arg.substring("--directory=".length());
+			else if (arg.equals("--preload"))
+				PRELOAD = true;
+			else if (arg.equals("--warm"))
+				WARM = true;
+		}
+
 		// Open the folder that contains our search index
-		Directory directory = FSDirectory.open(Paths.get(INDEX_DIRECTORY));
+		Directory directory = openDirectory(INDEX_DIRECTORY);
+		if (WARM)
+			warm(directory);
 		
 		// create objects to read and search across the index
 		DirectoryReader ireader = DirectoryReader.open(directory);
@@ -70,4 +91,60 @@ public class QueryIndex
 		ireader.close();
 		directory.close();
 	}
+
+	// Open the index in the mode picked on the command line:
+	// auto lets FSDirectory choose, mmap maps the files (--preload touches
+	// every mapped page up front; Lucene 8 cannot restrict it to some file
+	// types), nio reads through FileChannel positional reads
+	private static Directory openDirectory(String path) throws IOException
+	{
+		if (PRELOAD && !DIRECTORY_MODE.equals("mmap"))
+			System.out.println("--preload needs --directory=mmap, ignoring it");
+
+		if (DIRECTORY_MODE.equals("mmap"))
+		{
+			MMapDirectory mmap = new MMapDirectory(Paths.get(path));
+			mmap.setPreload(PRELOAD);
+			return mmap;
+		}
+		else if (DIRECTORY_MODE.equals("nio"))
+			return new NIOFSDirectory(Paths.get(path));
+		else if (DIRECTORY_MODE.equals("auto"))
+			return FSDirectory.open(Paths.get(path));
+		throw new IllegalArgumentException("Unknown directory mode: " + DIRECTORY_MODE + " (auto|mmap|nio)");
+	}
+
+	// Read every index file once so the OS page cache is hot before the
+	// first query, and report what that cost
+	private static void warm(Directory directory) throws IOException
+	{
+		long start = System.nanoTime();
+		byte[] buffer = new byte[1 << 16];
+		long bytes = 0;
+		int files = 0;
+		for (String name : directory.listAll())
+		{
+			if (name.equals("write.lock"))
+				continue;
+			IndexInput in = directory.openInput(name, IOContext.READONCE);
+			try
+			{
+				long remaining = in.length();
+				while (remaining > 0)
+				{
+					int n = (int) Math.min(buffer.length, remaining);
+					in.readBytes(buffer, 0, n);
+					remaining -= n;
+				}
+				bytes += in.length();
+				files++;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		System.out.printf("Warmed %d files, %.1f MB in %d ms\n",
+			files, bytes / 1048576.0, (System.nanoTime() - start) / 1000000);
+	}
 }
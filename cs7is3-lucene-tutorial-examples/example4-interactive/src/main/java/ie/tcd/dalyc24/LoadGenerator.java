@@ -0,0 +1,190 @@
+package ie.tcd.dalyc24;
+
+import java.io.IOException;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends search requests to a running SearchServer from N concurrent clients
+// (one virtual thread each) and reports throughput and latency percentiles.
+// Queries are read one per line from --queries=file, or taken from a small
+// built-in list, and sent round robin.
+public class LoadGenerator
+{
+
+	private static String URL = "http://localhost:8080/search";
+
+	// Clients sending requests at the same time, each waits for its response
+	private static int CONCURRENCY = 16;
+
+	// Requests in total, after WARMUP requests that are not measured
+	private static int REQUESTS = 2000;
+	private static int WARMUP = 200;
+
+	private static int K = 10;
+
+	private static String QUERIES_FILE = null;
+
+	private static final String[] DEFAULT_QUERIES =
+	{
+		"raven", "dream", "death", "heart", "night", "love", "sea", "house",
+		"raven nevermore", "dream within a dream", "tell-tale heart",
+		"fall of the house of usher", "cask of amontillado", "pit and pendulum",
+		"madness AND death", "\"black cat\"", "beauty OR sorrow", "maelstrom"
+	};
+
+	public static void main(String[] args) throws Exception
+	{
+		for (String arg : args)
+		{
+			if (arg.startsWith("--url="))
+			{
+				URL = arg.substring("--url=".length());
+			}
+			else if (arg.startsWith("--concurrency="))
+			{
+				CONCURRENCY = Math.max(1, Integer.parseInt(arg.substring("--concurrency=".length())));
+			}
+			else if (arg.startsWith("--requests="))
+			{
+				REQUESTS = Integer.parseInt(arg.substring("--requests=".length()));
+			}
+			else if (arg.startsWith("--warmup="))
+			{
+				WARMUP = Integer.parseInt(arg.substring("--warmup=".length()));
+			}
+			else if (arg.startsWith("--k="))
+			{
+				K = Integer.parseInt(arg.substring("--k=".length()));
+			}
+			else if (arg.startsWith("--queries="))
+			{
+				QUERIES_FILE = arg.substring("--queries=".length());
+			}
+		}
+
+		List<String> queries = new ArrayList<String>();
+		if (QUERIES_FILE != null)
+		{
+			for (String line : Files.readAllLines(Paths.get(QUERIES_FILE), StandardCharsets.UTF_8))
+			{
+				if (!line.trim().isEmpty())
+					queries.add(line.trim());
+			}
+		}
+		else
+			queries.addAll(Arrays.asList(DEFAULT_QUERIES));
+
+		HttpClient client = HttpClient.newBuilder()
+			.connectTimeout(Duration.ofSeconds(5))
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.build();
+
+		if (WARMUP > 0)
+		{
+			run(client, queries, WARMUP);
+			System.out.println("Warmed up with " + WARMUP + " requests");
+		}
+		run(client, queries, REQUESTS).print();
+	}
+
+	// Send n requests from CONCURRENCY clients and wait for all of them
+	private static Result run(final HttpClient client, final List<String> queries, final int n) throws InterruptedException
+	{
+		final Result result = new Result(n);
+		final AtomicInteger next = new AtomicInteger();
+		long start = System.nanoTime();
+		ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+		for (int c = 0; c < CONCURRENCY; c++)
+		{
+			clients.execute(() ->
+			{
+				int i;
+				while ((i = next.getAndIncrement()) < n)
+					send(client, queries.get(i % queries.size()), i, result);
+			});
+		}
+		clients.shutdown();
+		clients.awaitTermination(1, TimeUnit.DAYS);
+		result.wallNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private static void send(HttpClient client, String q, int i, Result result)
+	{
+		HttpRequest request = HttpRequest.newBuilder(URI.create(URL + "?q="
+				+ URLEncoder.encode(q, StandardCharsets.UTF_8) + "&k=" + K))
+			.timeout(Duration.ofSeconds(30))
+			.GET()
+			.build();
+		long start = System.nanoTime();
+		try
+		{
+			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			result.latencies[i] = System.nanoTime() - start;
+			if (response.statusCode() != 200)
+				result.errors.incrementAndGet();
+			else if (response.body().contains("\"timedOut\": true"))
+				result.timedOut.incrementAndGet();
+		}
+		catch (IOException e)
+		{
+			result.latencies[i] = System.nanoTime() - start;
+			result.errors.incrementAndGet();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Result
+	{
+		// by request, every slot is written by exactly one client
+		final long[] latencies;
+		final AtomicInteger errors = new AtomicInteger();
+		final AtomicInteger timedOut = new AtomicInteger();
+		long wallNanos;
+
+		Result(int n)
+		{
+			latencies = new long[n];
+		}
+
+		void print()
+		{
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			System.out.printf("%d requests from %d clients in %.1f ms: %.1f requests/s, %d errors, %d timed out\n",
+				sorted.length, CONCURRENCY, wallNanos / 1e6, sorted.length * 1e9 / wallNanos,
+				errors.get(), timedOut.get());
+			if (sorted.length == 0)
+				return;
+			System.out.printf("latency p50 %.3f ms  p95 %.3f ms  p99 %.3f ms  max %.3f ms\n",
+				percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), sorted[sorted.length - 1] / 1e6);
+		}
+
+		// nearest-rank percentile in ms
+		private static double percentile(long[] sorted, double percent)
+		{
+			int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+			return sorted[Math.max(0, rank - 1)] / 1e6;
+		}
+	}
+}
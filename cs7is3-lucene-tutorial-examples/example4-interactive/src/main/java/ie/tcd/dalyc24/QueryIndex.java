@@ -2,7 +2,15 @@ package ie.tcd.dalyc24;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import java.nio.file.Paths;
 import java.nio.file.Files;
@@ -14,14 +22,21 @@ import org.apache.lucene.document.Document;
 
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
 
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.DirectoryReader;
 
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 
@@ -29,62 +44,320 @@ public class QueryIndex
 {
 
 	// the location of the search index
-	private static String INDEX_DIRECTORY = "../index";
+	static String INDEX_DIRECTORY = "../index";
 	
 	// Limit the number of search results we get
 	private static int MAX_RESULTS = 10;
+
+	// Heap budget for cached results, override with --cacheMB=N (0 disables the cache)
+	static long CACHE_MB = 16;
+
+	// How often the background thread looks for a newer commit, override with --refreshMs=N
+	static long REFRESH_MS = 500;
+
+	// --directory=auto|mmap|nio, --preload (mmap only) and --warm
+	private static String DIRECTORY_MODE = "auto";
+	private static boolean PRELOAD = false;
+	static boolean WARM = false;
+
+	// --searchThreads=N searches the segments of each query on a pool of N
+	// threads (0: on the calling thread), --slices=N groups the segments into
+	// at most N slices of similar size (0: Lucene's default grouping)
+	static int SEARCH_THREADS = 0;
+	private static int SLICES = 0;
 	
-	public static void main(String[] args) throws IOException, ParseException
+	public static void main(String[] args) throws IOException
 	{
+		parseOptions(args);
+
 		// Analyzer used by the query parser.
 		// Must be the same as the one used when creating the index
 		Analyzer analyzer = new StandardAnalyzer();
 		
 		// Open the folder that contains our search index
-		Directory directory = FSDirectory.open(Paths.get(INDEX_DIRECTORY));
+		Directory directory = openDirectory(INDEX_DIRECTORY);
+		if (WARM)
+			warm(directory);
 		
-		// create objects to read and search across the index
-		DirectoryReader ireader = DirectoryReader.open(directory);
-		IndexSearcher isearcher = new IndexSearcher(ireader);
+		// The manager hands out searchers over the latest reader it has opened.
+		// A background thread reopens it every REFRESH_MS, so documents committed
+		// by CreateIndex --append show up without restarting this process.
+		// Every refreshed searcher shares the same search pool
+		final ExecutorService searchPool = SEARCH_THREADS > 0 ? Executors.newFixedThreadPool(SEARCH_THREADS) : null;
+		final SearcherManager manager = new SearcherManager(directory, searcherFactory(searchPool));
+		ScheduledExecutorService refresher = startRefresher(manager);
 		
 		// Create the query parser. The default search field is "content", but
 		// we can use this to search across any field
 		QueryParser parser = new QueryParser("content", analyzer);
+
+		// Repeated queries are answered from here instead of the postings
+		QueryResultCache cache = new QueryResultCache(CACHE_MB * 1024 * 1024);
 		
-		String queryString = "";
-		Scanner scanner = new Scanner(System.in);
-		do
+		// The refresher and search pool threads keep the JVM alive, so they are
+		// stopped however the session ends
+		try
 		{
-			// trim leading and trailing whitespace from the query
-			queryString = queryString.trim();
+			String queryString = "";
+			Scanner scanner = new Scanner(System.in);
+			do
+			{
+				// trim leading and trailing whitespace from the query
+				queryString = queryString.trim();
 
-			// if the user entered a querystring
-			if (queryString.length() > 0)
+				// print the cache counters on request
+				if (queryString.equals("\\stats"))
+				{
+					System.out.println(cache);
+					System.out.println();
+				}
+				// if the user entered a querystring
+				else if (queryString.length() > 0)
+				{
+					search(manager, parser, cache, queryString);
+					System.out.println();
+				}
+
+				// prompt the user for input and quit the loop if they escape
+				// or the input ends
+				System.out.print(">>> ");
+				queryString = scanner.hasNextLine() ? scanner.nextLine() : "\\q";
+			} while (!queryString.equals("\\q"));
+
+			System.out.println(cache);
+		}
+		finally
+		{
+			// close everything and quit
+			refresher.shutdown();
+			if (searchPool != null)
+				searchPool.shutdown();
+			manager.close();
+			directory.close();
+		}
+	}
+
+	// Run one query from the shell and print its hits; a query that does not
+	// parse is reported and the session goes on
+	private static void search(SearcherManager manager, QueryParser parser, QueryResultCache cache, String queryString) throws IOException
+	{
+		// parse the query with the parser, the parsed query is the
+		// normalized cache key (analyzed terms, no whitespace/case noise)
+		Query query;
+		try
+		{
+			query = parser.parse(queryString);
+		}
+		catch (ParseException e)
+		{
+			System.out.println("Cannot parse query: " + e.getMessage());
+			return;
+		}
+
+		// Borrow the current searcher; docids are only valid for its reader,
+		// so it is released after the hits have been printed
+		IndexSearcher isearcher = manager.acquire();
+		try
+		{
+			// Get the set of results, from the cache when we can
+			// (a refreshed reader invalidates the cached results)
+			ScoreDoc[] hits = cache.get(isearcher.getIndexReader(), query, MAX_RESULTS);
+			if (hits == null)
 			{
-				// parse the query with the parser
-				Query query = parser.parse(queryString);
+				hits = isearcher.search(query, MAX_RESULTS).scoreDocs;
+				cache.put(isearcher.getIndexReader(), query, MAX_RESULTS, hits);
+			}
 
-				// Get the set of results
-				ScoreDoc[] hits = isearcher.search(query, MAX_RESULTS).scoreDocs;
+			// Print the results
+			System.out.println("Documents: " + hits.length);
+			for (int i = 0; i < hits.length; i++)
+			{
+				Document hitDoc = isearcher.doc(hits[i].doc);
+				System.out.println(i + ") " + hitDoc.get("filename") + " " + hits[i].score);
+			}
+		}
+		finally
+		{
+			manager.release(isearcher);
+		}
+	}
 
-				// Print the results
-				System.out.println("Documents: " + hits.length);
-				for (int i = 0; i < hits.length; i++)
+	// Command line options shared by the shell and SearchServer, unknown ones
+	// are left for the caller
+	static void parseOptions(String[] args)
+	{
+		for (String arg : args)
+		{
+			if (arg.startsWith("--cacheMB="))
+			{
+				CACHE_MB = Long.parseLong(arg.substring("--cacheMB=".length()));
+			}
+			else if (arg.startsWith("--refreshMs="))
+			{
+				REFRESH_MS = Long.parseLong(arg.substring("--refreshMs=".length()));
+			}
+			else if (arg.startsWith("--directory="))
+			{
+				DIRECTORY_MODE = arg.substring("--directory=".length());
+			}
+			else if (arg.equals("--preload"))
+			{
+				PRELOAD = true;
+			}
+			else if (arg.equals("--warm"))
+			{
+				WARM = true;
+			}
+			else if (arg.startsWith("--searchThreads="))
+			{
+				SEARCH_THREADS = Integer.parseInt(arg.substring("--searchThreads=".length()));
+			}
+			else if (arg.startsWith("--slices="))
+			{
+				SLICES = Integer.parseInt(arg.substring("--slices=".length()));
+			}
+		}
+	}
+
+	// Reopen the manager's searcher every REFRESH_MS in the background
+	static ScheduledExecutorService startRefresher(final SearcherManager manager)
+	{
+		ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+		refresher.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				try
 				{
-					Document hitDoc = isearcher.doc(hits[i].doc);
-					System.out.println(i + ") " + hitDoc.get("filename") + " " + hits[i].score);
+					manager.maybeRefresh();
 				}
+				catch (IOException e)
+				{
+					System.err.println("Failed to refresh the searcher: " + e);
+				}
+			}
+		}, REFRESH_MS, REFRESH_MS, TimeUnit.MILLISECONDS);
+		return refresher;
+	}
 
-				System.out.println();	
+	// Searchers over the pool (null: plain single-threaded searchers).
+	// With SLICES the segments are dealt out largest first, each to the slice
+	// holding the fewest documents so far, so no slice lags far behind the
+	// others. Lucene 8 cannot split a segment, so a single-segment index is
+	// still searched by one thread; build it with several segments instead.
+	static SearcherFactory searcherFactory(final ExecutorService pool)
+	{
+		if (pool == null)
+			return null;
+		return new SearcherFactory()
+		{
+			public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader)
+			{
+				return new IndexSearcher(reader, pool)
+				{
+					// called from the IndexSearcher constructor, so it can
+					// only read static configuration
+					protected LeafSlice[] slices(List<LeafReaderContext> leaves)
+					{
+						if (SLICES <= 0)
+							return super.slices(leaves);
+						return balancedSlices(leaves, SLICES);
+					}
+				};
 			}
-			
-			// prompt the user for input and quit the loop if they escape
-			System.out.print(">>> ");
-			queryString = scanner.nextLine();
-		} while (!queryString.equals("\\q"));
-		
-		// close everything and quit
-		ireader.close();
-		directory.close();
+		};
+	}
+
+	private static IndexSearcher.LeafSlice[] balancedSlices(List<LeafReaderContext> leaves, int target)
+	{
+		List<LeafReaderContext> bySize = new ArrayList<LeafReaderContext>(leaves);
+		Collections.sort(bySize, new Comparator<LeafReaderContext>()
+		{
+			public int compare(LeafReaderContext a, LeafReaderContext b)
+			{
+				return Integer.compare(b.reader().maxDoc(), a.reader().maxDoc());
+			}
+		});
+
+		int n = Math.max(1, Math.min(target, bySize.size()));
+		List<List<LeafReaderContext>> groups = new ArrayList<List<LeafReaderContext>>();
+		long[] docs = new long[n];
+		for (int i = 0; i < n; i++)
+			groups.add(new ArrayList<LeafReaderContext>());
+		for (LeafReaderContext leaf : bySize)
+		{
+			int lightest = 0;
+			for (int i = 1; i < n; i++)
+			{
+				if (docs[i] < docs[lightest])
+					lightest = i;
+			}
+			groups.get(lightest).add(leaf);
+			docs[lightest] += leaf.reader().maxDoc();
+		}
+
+		List<IndexSearcher.LeafSlice> slices = new ArrayList<IndexSearcher.LeafSlice>();
+		for (List<LeafReaderContext> group : groups)
+		{
+			if (!group.isEmpty())
+				slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[0])));
+		}
+		return slices.toArray(new IndexSearcher.LeafSlice[0]);
+	}
+
+	// Open the index in the mode picked on the command line:
+	// auto lets FSDirectory choose, mmap maps the files (--preload touches
+	// every mapped page up front; Lucene 8 cannot restrict it to some file
+	// types), nio reads through FileChannel positional reads
+	static Directory openDirectory(String path) throws IOException
+	{
+		if (PRELOAD && !DIRECTORY_MODE.equals("mmap"))
+			System.out.println("--preload needs --directory=mmap, ignoring it");
+
+		if (DIRECTORY_MODE.equals("mmap"))
+		{
+			MMapDirectory mmap = new MMapDirectory(Paths.get(path));
+			mmap.setPreload(PRELOAD);
+			return mmap;
+		}
+		else if (DIRECTORY_MODE.equals("nio"))
+			return new NIOFSDirectory(Paths.get(path));
+		else if (DIRECTORY_MODE.equals("auto"))
+			return FSDirectory.open(Paths.get(path));
+		throw new IllegalArgumentException("Unknown directory mode: " + DIRECTORY_MODE + " (auto|mmap|nio)");
+	}
+
+	// Read every index file once so the OS page cache is hot before the
+	// first query, and report what that cost
+	static void warm(Directory directory) throws IOException
+	{
+		long start = System.nanoTime();
+		byte[] buffer = new byte[1 << 16];
+		long bytes = 0;
+		int files = 0;
+		for (String name : directory.listAll())
+		{
+			if (name.equals("write.lock"))
+				continue;
+			IndexInput in = directory.openInput(name, IOContext.READONCE);
+			try
+			{
+				long remaining = in.length();
+				while (remaining > 0)
+				{
+					int n = (int) Math.min(buffer.length, remaining);
+					in.readBytes(buffer, 0, n);
+					remaining -= n;
+				}
+				bytes += in.length();
+				files++;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		System.out.printf("Warmed %d files, %.1f MB in %d ms\n",
+			files, bytes / 1048576.0, (System.nanoTime() - start) / 1000000);
 	}
 }
@@ -0,0 +1,139 @@
+package ie.tcd.dalyc24;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+public class QueryResultCache
+{
+
+	// rough heap cost of one cached hit: the ScoreDoc plus its slot in the array
+	private static final long BYTES_PER_HIT =
+		RamUsageEstimator.shallowSizeOfInstance(ScoreDoc.class) + RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+	// rough heap cost of a map entry and the Entry holder
+	private static final long BYTES_PER_ENTRY = 96;
+
+	private static class Entry
+	{
+		final int n;
+		final ScoreDoc[] hits;
+		final long bytes;
+
+		Entry(int n, ScoreDoc[] hits, long bytes)
+		{
+			this.n = n;
+			this.hits = hits;
+			this.bytes = bytes;
+		}
+	}
+
+	private final long maxBytes;
+
+	// access-ordered, so the first entry is always the least recently used one
+	private final LinkedHashMap<Query, Entry> entries = new LinkedHashMap<Query, Entry>(16, 0.75f, true);
+
+	// the reader all cached results were computed against
+	private IndexReader reader;
+
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	public QueryResultCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	// Return the cached top n for the query, or null on a miss.
+	// Results computed against an older reader are dropped first.
+	public synchronized ScoreDoc[] get(IndexReader reader, Query query, int n)
+	{
+		checkReader(reader);
+		Entry entry = entries.get(query);
+		if (entry == null || entry.n != n)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.hits;
+	}
+
+	// Remember the top n for the query and evict least recently used entries
+	// until the cache fits its byte budget again.
+	public synchronized void put(IndexReader reader, Query query, int n, ScoreDoc[] results)
+	{
+		checkReader(reader);
+		long size = BYTES_PER_ENTRY
+			+ RamUsageEstimator.sizeOf(query)
+			+ RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+			+ results.length * BYTES_PER_HIT;
+		if (size > maxBytes)
+		{
+			return;
+		}
+
+		Entry previous = entries.put(query, new Entry(n, results, size));
+		if (previous != null)
+		{
+			bytes -= previous.bytes;
+		}
+		bytes += size;
+
+		Iterator<Map.Entry<Query, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext())
+		{
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	// A newer reader means every cached result may be stale.
+	private void checkReader(IndexReader reader)
+	{
+		if (this.reader != reader)
+		{
+			if (this.reader != null && !entries.isEmpty())
+			{
+				invalidations++;
+			}
+			entries.clear();
+			bytes = 0;
+			this.reader = reader;
+		}
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	public synchronized String toString()
+	{
+		return String.format(
+			"cache: entries = %d : bytes = %d/%d : hits = %d : misses = %d : evictions = %d : invalidations = %d",
+			entries.size(), bytes, maxBytes, hits, misses, evictions, invalidations
+		);
+	}
+}
@@ -0,0 +1,363 @@
+package ie.tcd.dalyc24;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+
+import org.apache.lucene.document.Document;
+
+import org.apache.lucene.store.Directory;
+
+import org.apache.lucene.index.LeafReaderContext;
+
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+
+// Serves the index over HTTP:
+//
+//   GET /search?q=<query>&k=<hits>  ->  JSON with the top k files and scores
+//
+// Every request runs on its own virtual thread against the searcher of a
+// shared SearcherManager, which is refreshed in the background like the
+// interactive shell's. Takes the same index options as QueryIndex.
+public class SearchServer
+{
+
+	// Port to listen on, override with --port=N
+	private static int PORT = 8080;
+
+	// Hits returned when the request has no k, and the most it may ask for
+	private static int DEFAULT_K = 10;
+	private static int MAX_K = 1000;
+
+	// A query still collecting after this long returns what it has so far,
+	// flagged with "timedOut": true. Override with --timeoutMs=N (0: no limit)
+	private static long TIMEOUT_MS = 1000;
+
+	private static final Analyzer ANALYZER = new StandardAnalyzer();
+
+	// QueryParser is not thread-safe. A ThreadLocal would build a parser per
+	// request, as every request gets a new virtual thread, so idle parsers
+	// wait here to be reused instead
+	private static final ConcurrentLinkedQueue<QueryParser> PARSERS = new ConcurrentLinkedQueue<QueryParser>();
+
+	private static SearcherManager manager;
+
+	public static void main(String[] args) throws IOException
+	{
+		QueryIndex.parseOptions(args);
+		for (String arg : args)
+		{
+			if (arg.startsWith("--port="))
+			{
+				PORT = Integer.parseInt(arg.substring("--port=".length()));
+			}
+			else if (arg.startsWith("--maxK="))
+			{
+				MAX_K = Integer.parseInt(arg.substring("--maxK=".length()));
+			}
+			else if (arg.startsWith("--timeoutMs="))
+			{
+				TIMEOUT_MS = Long.parseLong(arg.substring("--timeoutMs=".length()));
+			}
+		}
+
+		final Directory directory = QueryIndex.openDirectory(QueryIndex.INDEX_DIRECTORY);
+		if (QueryIndex.WARM)
+			QueryIndex.warm(directory);
+
+		final ExecutorService searchPool = QueryIndex.SEARCH_THREADS > 0
+			? Executors.newFixedThreadPool(QueryIndex.SEARCH_THREADS) : null;
+		manager = new SearcherManager(directory, QueryIndex.searcherFactory(searchPool));
+		final ScheduledExecutorService refresher = QueryIndex.startRefresher(manager);
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+		server.createContext("/search", SearchServer::handle);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.start();
+		System.out.println("Listening on http://localhost:" + PORT + "/search?q=...&k=...");
+
+		// Ctrl-C stops accepting requests and closes the index
+		Runtime.getRuntime().addShutdownHook(new Thread(() ->
+		{
+			server.stop(1);
+			refresher.shutdown();
+			if (searchPool != null)
+				searchPool.shutdown();
+			try
+			{
+				manager.close();
+				directory.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Failed to close the index: " + e);
+			}
+		}));
+	}
+
+	private static void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			if (!exchange.getRequestMethod().equals("GET"))
+			{
+				send(exchange, 405, "{\"error\": \"only GET is supported\"}");
+				return;
+			}
+
+			Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+			String q = params.get("q");
+			if (q == null || q.trim().isEmpty())
+			{
+				send(exchange, 400, "{\"error\": \"missing q\"}");
+				return;
+			}
+			int k = DEFAULT_K;
+			try
+			{
+				if (params.containsKey("k"))
+					k = Integer.parseInt(params.get("k"));
+			}
+			catch (NumberFormatException e)
+			{
+				send(exchange, 400, "{\"error\": \"k must be a number\"}");
+				return;
+			}
+			if (k < 1 || k > MAX_K)
+			{
+				send(exchange, 400, "{\"error\": \"k must be between 1 and " + MAX_K + "\"}");
+				return;
+			}
+
+			Query query;
+			try
+			{
+				query = parse(q);
+			}
+			catch (ParseException e)
+			{
+				send(exchange, 400, "{\"error\": " + json(e.getMessage()) + "}");
+				return;
+			}
+
+			send(exchange, 200, search(q, query, k));
+		}
+		catch (Exception e)
+		{
+			send(exchange, 500, "{\"error\": " + json(String.valueOf(e)) + "}");
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private static Query parse(String q) throws ParseException
+	{
+		QueryParser parser = PARSERS.poll();
+		if (parser == null)
+			parser = new QueryParser("content", ANALYZER);
+		try
+		{
+			return parser.parse(q);
+		}
+		finally
+		{
+			PARSERS.offer(parser);
+		}
+	}
+
+	private static String search(String q, Query query, int k) throws IOException
+	{
+		long start = System.nanoTime();
+		IndexSearcher isearcher = manager.acquire();
+		try
+		{
+			// a CollectorManager lets the searcher run its slices on the
+			// --searchThreads pool; hits collected so far survive a timeout
+			TimeLimitedTopDocs topDocs = new TimeLimitedTopDocs(k, TIMEOUT_MS);
+			TopDocs results = isearcher.search(query, topDocs);
+			boolean timedOut = topDocs.timedOut;
+			StringBuilder out = new StringBuilder();
+			out.append("{\"q\": ").append(json(q));
+			out.append(", \"query\": ").append(json(query.toString()));
+			out.append(", \"k\": ").append(k);
+			out.append(", \"totalHits\": ").append(results.totalHits.value);
+			out.append(", \"totalHitsRelation\": ").append(json(
+				results.totalHits.relation == TotalHits.Relation.EQUAL_TO && !timedOut ? "eq" : "gte"));
+			out.append(", \"timedOut\": ").append(timedOut);
+			out.append(", \"hits\": [");
+			for (int i = 0; i < results.scoreDocs.length; i++)
+			{
+				ScoreDoc hit = results.scoreDocs[i];
+				Document hitDoc = isearcher.doc(hit.doc);
+				out.append(i == 0 ? "" : ", ");
+				out.append("{\"filename\": ").append(json(hitDoc.get("filename")));
+				out.append(", \"score\": ").append(hit.score).append("}");
+			}
+			out.append("]");
+			out.append(String.format(Locale.ROOT, ", \"tookMs\": %.3f}", (System.nanoTime() - start) / 1e6));
+			return out.toString();
+		}
+		finally
+		{
+			manager.release(isearcher);
+		}
+	}
+
+	// Top k hits of every slice, merged. Every hit is counted exactly, so the
+	// total does not depend on timing. A slice still collecting after the
+	// deadline stops: CollectionTerminatedException makes IndexSearcher move
+	// on to the next segment, which stops right away as well, so unlike
+	// TimeLimitingCollector's exception the slices' hits can still be merged.
+	private static class TimeLimitedTopDocs implements CollectorManager<TimeLimitedTopDocs.Slice, TopDocs>
+	{
+		// the global counter is advanced by a shared timer thread, cheaper
+		// than reading the clock for every hit
+		private static final Counter CLOCK = TimeLimitingCollector.getGlobalCounter();
+
+		private final int k;
+		private final long deadline;
+		volatile boolean timedOut = false;
+
+		TimeLimitedTopDocs(int k, long timeoutMs)
+		{
+			this.k = k;
+			this.deadline = timeoutMs > 0 ? CLOCK.get() + timeoutMs : Long.MAX_VALUE;
+		}
+
+		private void checkDeadline()
+		{
+			if (CLOCK.get() > deadline)
+			{
+				timedOut = true;
+				throw new CollectionTerminatedException();
+			}
+		}
+
+		public Slice newCollector()
+		{
+			return new Slice(TopScoreDocCollector.create(k, Integer.MAX_VALUE));
+		}
+
+		public TopDocs reduce(Collection<Slice> slices)
+		{
+			TopDocs[] perSlice = new TopDocs[slices.size()];
+			int i = 0;
+			for (Slice slice : slices)
+				perSlice[i++] = slice.topDocs.topDocs();
+			return TopDocs.merge(k, perSlice);
+		}
+
+		class Slice extends FilterCollector
+		{
+			final TopScoreDocCollector topDocs;
+
+			Slice(TopScoreDocCollector topDocs)
+			{
+				super(topDocs);
+				this.topDocs = topDocs;
+			}
+
+			@Override
+			public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException
+			{
+				checkDeadline();
+				return new FilterLeafCollector(super.getLeafCollector(context))
+				{
+					@Override
+					public void collect(int doc) throws IOException
+					{
+						checkDeadline();
+						super.collect(doc);
+					}
+				};
+			}
+		}
+	}
+
+	private static Map<String, String> queryParams(String rawQuery)
+	{
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null)
+			return params;
+		for (String pair : rawQuery.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			String name = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException
+	{
+		byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+
+	// JSON string literal, or null
+	static String json(String s)
+	{
+		if (s == null)
+			return "null";
+		StringBuilder out = new StringBuilder(s.length() + 2);
+		out.append('"');
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				out.append('\\').append(c);
+			else if (c == '\n')
+				out.append("\\n");
+			else if (c == '\r')
+				out.append("\\r");
+			else if (c == '\t')
+				out.append("\\t");
+			else if (c < 0x20)
+				out.append(String.format("\\u%04x", (int) c));
+			else
+				out.append(c);
+		}
+		return out.append('"').toString();
+	}
+}
@@ -0,0 +1,388 @@
+package ie.tcd.dalyc24;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+import org.apache.lucene.search.DocIdSetIterator;
+
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+// Every document of one field as a sorted list of (term ordinal, freq) pairs,
+// in a memory-mapped file next to the Lucene index.
+//
+// Term vectors would answer the same question, but they are stored per
+// document with positions/offsets/payloads and have to be decoded term by
+// term. Here a document is a slice of two int columns, so TF-IDF weights and
+// cosine similarities are plain loops over primitive buffers.
+//
+// Term ordinals are ranks in the sorted vocabulary of the field, so the pairs
+// of a document are sorted by term and two documents can be merge-joined.
+// Documents are Lucene docids of the reader the file was built from; deleted
+// documents have no pairs. The file records that reader's commit (index id,
+// segments generation and version) and must be rebuilt when the index
+// changes or is replaced by another one (see isCurrent).
+//
+// File layout, all big-endian:
+//   header     MAGIC, id[16], generation, version, maxDoc, numTerms, docCount,
+//              pairs, termBytes
+//   offsets    long[maxDoc + 1]  first pair of each document
+//   ords       int[pairs]
+//   freqs      int[pairs]
+//   norms      double[maxDoc]    euclidean length of each TF-IDF vector
+//   docFreqs   int[numTerms]     live documents containing each term
+//   termStarts long[numTerms + 1]
+//   terms      byte[termBytes]   UTF-8 term text
+public class ForwardIndex
+{
+
+    private static final int MAGIC = 0x46574432; // "FWD2"
+    private static final int HEADER = 4 + StringHelper.ID_LENGTH + 8 + 8 + 4 + 4 + 4 + 8 + 8;
+
+    private final TermStatsTable.CommitKey commit;
+    private final int maxDoc;
+    private final int numTerms;
+    private final int docCount;
+
+    private final LongBuffer offsets;
+    private final IntBuffer ords;
+    private final IntBuffer freqs;
+    private final DoubleBuffer norms;
+    private final IntBuffer docFreqs;
+    private final LongBuffer termStarts;
+    private final ByteBuffer terms;
+
+    private ForwardIndex(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER);
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not a forward index file");
+        byte[] id = new byte[StringHelper.ID_LENGTH];
+        header.get(id);
+        long generation = header.getLong();
+        commit = new TermStatsTable.CommitKey(id, generation, header.getLong());
+        maxDoc = header.getInt();
+        numTerms = header.getInt();
+        docCount = header.getInt();
+        long pairs = header.getLong();
+        long termBytes = header.getLong();
+
+        long pos = HEADER;
+        offsets = map(channel, FileChannel.MapMode.READ_ONLY, pos, 8L * (maxDoc + 1)).asLongBuffer();
+        pos += 8L * (maxDoc + 1);
+        ords = map(channel, FileChannel.MapMode.READ_ONLY, pos, 4L * pairs).asIntBuffer();
+        pos += 4L * pairs;
+        freqs = map(channel, FileChannel.MapMode.READ_ONLY, pos, 4L * pairs).asIntBuffer();
+        pos += 4L * pairs;
+        norms = map(channel, FileChannel.MapMode.READ_ONLY, pos, 8L * maxDoc).asDoubleBuffer();
+        pos += 8L * maxDoc;
+        docFreqs = map(channel, FileChannel.MapMode.READ_ONLY, pos, 4L * numTerms).asIntBuffer();
+        pos += 4L * numTerms;
+        termStarts = map(channel, FileChannel.MapMode.READ_ONLY, pos, 8L * (numTerms + 1)).asLongBuffer();
+        pos += 8L * (numTerms + 1);
+        terms = map(channel, FileChannel.MapMode.READ_ONLY, pos, termBytes);
+    }
+
+    // A section is mapped on its own, so only a single column has to fit the
+    // 2GB limit of a MappedByteBuffer
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long pos, long size)
+        throws IOException
+    {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Forward index section of " + size + " bytes is too large to map");
+        return channel.map(mode, pos, size);
+    }
+
+    public static ForwardIndex open(Path file) throws IOException
+    {
+        // the mappings stay valid after the channel is closed
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            return new ForwardIndex(channel);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    // Invert the field's postings into the file. Two passes over the merged
+    // terms of the index: the first counts the pairs of every document and
+    // the live document frequency of every term, the second writes the pairs
+    // straight into the mapped columns, so only per-document counters are
+    // kept on the heap.
+    public static void build(DirectoryReader reader, String field, Path file) throws IOException
+    {
+        int maxDoc = reader.maxDoc();
+        Bits liveDocs = MultiBits.getLiveDocs(reader);
+        Terms fieldTerms = MultiTerms.getTerms(reader, field);
+
+        // pass 1: pairs per document, docFreq per term, vocabulary size
+        int[] pairsPerDoc = new int[maxDoc];
+        IntList docFreqList = new IntList();
+        long termBytes = 0;
+        PostingsEnum postings = null;
+        if (fieldTerms != null)
+        {
+            TermsEnum termsEnum = fieldTerms.iterator();
+            BytesRef term;
+            while ((term = termsEnum.next()) != null)
+            {
+                int docFreq = 0;
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                int doc;
+                while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+                {
+                    if (liveDocs != null && !liveDocs.get(doc))
+                        continue;
+                    pairsPerDoc[doc]++;
+                    docFreq++;
+                }
+                // a term only in deleted documents keeps its ordinal, with docFreq 0
+                docFreqList.add(docFreq);
+                termBytes += term.length;
+            }
+        }
+        int numTerms = docFreqList.size;
+        int[] docFreqs = docFreqList.values;
+        long[] offsets = new long[maxDoc + 1];
+        int docCount = 0;
+        for (int doc = 0; doc < maxDoc; doc++)
+        {
+            offsets[doc + 1] = offsets[doc] + pairsPerDoc[doc];
+            if (pairsPerDoc[doc] > 0)
+                docCount++;
+        }
+        long pairs = offsets[maxDoc];
+        TermStatsTable.CommitKey commit = TermStatsTable.CommitKey.of(reader);
+        if (commit.id.length != StringHelper.ID_LENGTH)
+            throw new IOException("Unexpected index id length: " + commit.id.length);
+
+        // pass 2: fill the columns in place
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            header.putInt(MAGIC).put(commit.id).putLong(commit.generation).putLong(commit.version)
+                .putInt(maxDoc).putInt(numTerms).putInt(docCount).putLong(pairs).putLong(termBytes);
+
+            long pos = HEADER;
+            LongBuffer offsetsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, 8L * (maxDoc + 1)).asLongBuffer();
+            offsetsOut.put(offsets);
+            pos += 8L * (maxDoc + 1);
+            IntBuffer ordsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, 4L * pairs).asIntBuffer();
+            pos += 4L * pairs;
+            IntBuffer freqsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, 4L * pairs).asIntBuffer();
+            pos += 4L * pairs;
+            DoubleBuffer normsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, 8L * maxDoc).asDoubleBuffer();
+            pos += 8L * maxDoc;
+            IntBuffer docFreqsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, 4L * numTerms).asIntBuffer();
+            docFreqsOut.put(docFreqs, 0, numTerms);
+            pos += 4L * numTerms;
+            LongBuffer termStartsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, 8L * (numTerms + 1)).asLongBuffer();
+            pos += 8L * (numTerms + 1);
+            ByteBuffer termsOut = map(channel, FileChannel.MapMode.READ_WRITE, pos, termBytes);
+
+            // next free pair of every document, starts at its offset
+            long[] cursor = new long[maxDoc];
+            System.arraycopy(offsets, 0, cursor, 0, maxDoc);
+            double[] squares = new double[maxDoc];
+            if (fieldTerms != null)
+            {
+                TermsEnum termsEnum = fieldTerms.iterator();
+                BytesRef term;
+                int ord = 0;
+                while ((term = termsEnum.next()) != null)
+                {
+                    termStartsOut.put(termsOut.position());
+                    termsOut.put(term.bytes, term.offset, term.length);
+                    double idf = idf(docFreqs[ord], docCount);
+                    postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                    int doc;
+                    while ((doc = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+                    {
+                        if (liveDocs != null && !liveDocs.get(doc))
+                            continue;
+                        int i = (int) cursor[doc]++;
+                        ordsOut.put(i, ord);
+                        freqsOut.put(i, postings.freq());
+                        double w = Math.sqrt(postings.freq()) * idf;
+                        squares[doc] += w * w;
+                    }
+                    ord++;
+                }
+            }
+            termStartsOut.put(termBytes);
+            for (int doc = 0; doc < maxDoc; doc++)
+                normsOut.put(Math.sqrt(squares[doc]));
+        }
+        finally
+        {
+            channel.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Growable int[] for the docFreqs of pass 1
+    private static class IntList
+    {
+        int[] values = new int[1024];
+        int size;
+
+        void add(int value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    // ClassicSimilarity's idf: 1 + ln((docCount + 1) / (docFreq + 1))
+    private static double idf(int docFreq, int docCount)
+    {
+        return 1 + Math.log((docCount + 1.0) / (docFreq + 1.0));
+    }
+
+    // Whether the file describes what the reader sees: the same commit of the
+    // same index, so docids mean the same documents
+    public boolean isCurrent(DirectoryReader reader) throws IOException
+    {
+        return reader.maxDoc() == maxDoc && TermStatsTable.CommitKey.of(reader).equals(commit);
+    }
+
+    public int maxDoc()
+    {
+        return maxDoc;
+    }
+
+    public int numTerms()
+    {
+        return numTerms;
+    }
+
+    // Live documents with at least one term
+    public int docCount()
+    {
+        return docCount;
+    }
+
+    // Distinct terms of the document
+    public int length(int doc)
+    {
+        return (int) (offsets.get(doc + 1) - offsets.get(doc));
+    }
+
+    // Term ordinals of the document, ascending
+    public int[] termOrds(int doc)
+    {
+        int start = (int) offsets.get(doc);
+        int[] result = new int[length(doc)];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ords.get(start + i);
+        return result;
+    }
+
+    // Term frequencies, in the order of termOrds(doc)
+    public int[] freqs(int doc)
+    {
+        int start = (int) offsets.get(doc);
+        int[] result = new int[length(doc)];
+        for (int i = 0; i < result.length; i++)
+            result[i] = freqs.get(start + i);
+        return result;
+    }
+
+    // sqrt(tf) * idf of every term, in the order of termOrds(doc)
+    public double[] tfidf(int doc)
+    {
+        int start = (int) offsets.get(doc);
+        double[] result = new double[length(doc)];
+        for (int i = 0; i < result.length; i++)
+            result[i] = weight(start + i);
+        return result;
+    }
+
+    private double weight(int pair)
+    {
+        return Math.sqrt(freqs.get(pair)) * idf(docFreqs.get(ords.get(pair)), docCount);
+    }
+
+    public int docFreq(int ord)
+    {
+        return docFreqs.get(ord);
+    }
+
+    public double idf(int ord)
+    {
+        return idf(docFreqs.get(ord), docCount);
+    }
+
+    public BytesRef term(int ord)
+    {
+        int start = (int) termStarts.get(ord);
+        byte[] bytes = new byte[(int) termStarts.get(ord + 1) - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = terms.get(start + i);
+        return new BytesRef(bytes);
+    }
+
+    public String termString(int ord)
+    {
+        BytesRef term = term(ord);
+        return new String(term.bytes, term.offset, term.length, StandardCharsets.UTF_8);
+    }
+
+    // Cosine of the TF-IDF vectors of two documents; 0 if either is empty.
+    // Both pair lists are sorted by ordinal, so this is a single merge pass
+    // with no allocation.
+    public double cosine(int a, int b)
+    {
+        double norms = this.norms.get(a) * this.norms.get(b);
+        if (norms == 0)
+            return 0;
+        int i = (int) offsets.get(a), iEnd = (int) offsets.get(a + 1);
+        int j = (int) offsets.get(b), jEnd = (int) offsets.get(b + 1);
+        double dot = 0;
+        while (i < iEnd && j < jEnd)
+        {
+            int ordA = ords.get(i);
+            int ordB = ords.get(j);
+            if (ordA < ordB)
+                i++;
+            else if (ordA > ordB)
+                j++;
+            else
+            {
+                double idf = idf(docFreqs.get(ordA), docCount);
+                dot += Math.sqrt(freqs.get(i)) * Math.sqrt(freqs.get(j)) * idf * idf;
+                i++;
+                j++;
+            }
+        }
+        return dot / norms;
+    }
+}
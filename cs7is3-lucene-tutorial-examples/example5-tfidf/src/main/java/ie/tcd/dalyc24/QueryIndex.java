@@ -2,14 +2,28 @@ package ie.tcd.dalyc24;
 
 import java.io.IOException;
 
+import java.math.BigInteger;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 
 import org.apache.lucene.document.Document;
@@ -18,24 +32,23 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.Fields;
-import org.apache.lucene.index.TermsEnum;
-import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
 
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.NumericDocValuesField;
 
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.DocIdSetIterator;
 
 public class QueryIndex
 {
@@ -43,6 +56,20 @@ public class QueryIndex
     // Directory where the search index will be saved
     private static String INDEX_DIRECTORY = "../index";
 
+    // Threads sweeping segments for the term statistics, --statsThreads=N
+    private static int STATS_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // Where the term statistics are saved and reloaded from while the index
+    // is unchanged, --statsSnapshot=file (none by default)
+    private static String STATS_SNAPSHOT = null;
+
+    // Document -> (term, freq) pairs of the content field, rebuilt with the
+    // index, --forwardIndex=file
+    private static String FORWARD_INDEX = "../forward.bin";
+
+    // How many similar documents postingsDemo lists
+    private static int SIMILAR = 5;
+
     private Analyzer analyzer;
     private Directory directory;
 
@@ -55,34 +82,122 @@ public class QueryIndex
     }
 
     public void buildIndex(String[] args) throws IOException
+    {
+        buildIndex(args, false);
+    }
+
+    // With incremental set the existing index is kept: a file whose content
+    // hash and mtime match its stored fingerprint is skipped, a changed file
+    // replaces its old document and files that no longer exist are deleted
+    public void buildIndex(String[] args, boolean incremental) throws IOException
     {
 
-        // Create a new field type which will store term vector information
+        // Create a new field type for the content. No term vectors: the
+        // per-document term frequencies come from the forward index instead
         FieldType ft = new FieldType(TextField.TYPE_STORED);
         ft.setTokenized(true); //done as default
-        ft.setStoreTermVectors(true);
-        ft.setStoreTermVectorPositions(true);
-        ft.setStoreTermVectorOffsets(true);
-        ft.setStoreTermVectorPayloads(true);
 
         // create and configure an index writer
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setOpenMode(incremental
+            ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND
+            : IndexWriterConfig.OpenMode.CREATE);
+        Map<String, String[]> known = incremental ? loadFingerprints() : null;
         IndexWriter iwriter = new IndexWriter(directory, config);  
 
         // Add all input documents to the index
+        int skipped = 0;
         for (String arg : args)
         {
+            Path path = Paths.get(arg);
+            byte[] bytes = Files.readAllBytes(path);
+            String hash = sha256(bytes);
+            long mtime = Files.getLastModifiedTime(path).toMillis();
+
+            if (known != null)
+            {
+                // fingerprint = { hash, mtime }
+                String[] old = known.remove(arg);
+                if (old != null && old[0].equals(hash))
+                {
+                    // same content, at most the mtime needs refreshing
+                    if (Long.parseLong(old[1]) != mtime)
+                        iwriter.updateNumericDocValue(new Term("filename", arg), "mtime", mtime);
+                    skipped++;
+                    continue;
+                }
+            }
+
             System.out.printf("Indexing \"%s\"\n", arg);
-            String content = new String(Files.readAllBytes(Paths.get(arg)));
+            String content = new String(bytes);
             Document doc = new Document();
             doc.add(new StringField("filename", arg, Field.Store.YES));
             doc.add(new Field("content", content, ft));
-            iwriter.addDocument(doc);
+            doc.add(new StringField("fingerprint", hash, Field.Store.YES));
+            doc.add(new NumericDocValuesField("mtime", mtime));
+            if (incremental)
+                iwriter.updateDocument(new Term("filename", arg), doc);
+            else
+                iwriter.addDocument(doc);
+        }
+
+        // Whatever is left was indexed before; drop it if the file is gone
+        if (known != null)
+        {
+            for (String filename : known.keySet())
+            {
+                if (!Files.exists(Paths.get(filename)))
+                {
+                    System.out.printf("Removing \"%s\"\n", filename);
+                    iwriter.deleteDocuments(new Term("filename", filename));
+                }
+            }
+            System.out.printf("Skipped %d unchanged files\n", skipped);
         }
         
         // close the writer
         iwriter.close();
+
+        // and invert the new index into the forward index
+        DirectoryReader ireader = DirectoryReader.open(directory);
+        buildForwardIndex(ireader);
+        ireader.close();
+    }
+
+    // filename -> { hash, mtime } of every live document with a fingerprint
+    private Map<String, String[]> loadFingerprints() throws IOException
+    {
+        Map<String, String[]> fingerprints = new HashMap<String, String[]>();
+        if (!DirectoryReader.indexExists(directory))
+            return fingerprints;
+
+        DirectoryReader ireader = DirectoryReader.open(directory);
+        Set<String> fields = new HashSet<String>(Arrays.asList("filename", "fingerprint"));
+        Bits liveDocs = MultiBits.getLiveDocs(ireader);
+        NumericDocValues mtimes = MultiDocValues.getNumericValues(ireader, "mtime");
+        for (int i = 0; i < ireader.maxDoc(); i++)
+        {
+            if ((liveDocs != null && !liveDocs.get(i)) || mtimes == null || !mtimes.advanceExact(i))
+                continue;
+            Document doc = ireader.document(i, fields);
+            fingerprints.put(doc.get("filename"),
+                new String[] { doc.get("fingerprint"), Long.toString(mtimes.longValue()) });
+        }
+        ireader.close();
+        return fingerprints;
+    }
+
+    private static String sha256(byte[] bytes)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return String.format("%064x", new BigInteger(1, digest.digest(bytes)));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
     }
 
     public void postingsDemo() throws IOException
@@ -104,51 +219,106 @@ public class QueryIndex
         // get the document ID of the first search result
         int docID = hits[0].doc;
 
-        // Get the fields associated with the document (filename and content)
-        Fields fields = ireader.getTermVectors(docID);
+        // The document's terms and frequencies, from the forward index
+        // (rebuilt first if the index changed since it was written)
+        ForwardIndex forward = openForwardIndex(ireader);
+        int[] ords = forward.termOrds(docID);
+        int[] freqs = forward.freqs(docID);
+        double[] tfidf = forward.tfidf(docID);
+
+        // Collection statistics of every term in the field, gathered in
+        // one pass instead of a docFreq/totalTermFreq lookup per term
+        TermStatsTable stats = termStats(ireader, "content");
 
-        for (String field : fields)
+        // Terms come sorted, one entry per unique word in the document
+        for (int i = 0; i < ords.length; i++)
         {
-            // For each field, get the terms it contains i.e. unique words
-            Terms terms = fields.terms(field);
+            BytesRef termByte = forward.term(ords[i]);
 
-            // Iterate over each term in the field
-            BytesRef termByte = null;
-            TermsEnum termsEnum = terms.iterator();
+            // convert the term from a byte array to a string
+            String termString = termByte.utf8ToString();
 
-            while ((termByte = termsEnum.next()) != null)
-            {                                
-                int id;
+            // extract some stats from the table
+            long docFreq = stats.docFreq(termByte);
+            long totFreq = stats.totalTermFreq(termByte);
 
-                // for each term retrieve its postings list
-                PostingsEnum posting = null;
-                posting = termsEnum.postings(posting, PostingsEnum.FREQS);
+            // print the results, weighted like ClassicSimilarity: sqrt(tf) * idf
+            System.out.printf(
+                "%-16s : freq = %4d : totfreq = %4d : docfreq = %4d : tfidf = %7.3f\n",
+                termString, freqs[i], totFreq, docFreq, tfidf[i]
+            );
+        }
 
-                // This only processes the single document we retrieved earlier
-                while ((id = posting.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
-                {
-                    // convert the term from a byte array to a string
-                    String termString = termByte.utf8ToString();
-                    
-                    // extract some stats from the index
-                    Term term = new Term(field, termString);
-                    long freq = posting.freq();
-                    long docFreq = ireader.docFreq(term);
-                    long totFreq = ireader.totalTermFreq(term);
-
-                    // print the results
-                    System.out.printf(
-                        "%-16s : freq = %4d : totfreq = %4d : docfreq = %4d\n",
-                        termString, freq, totFreq, docFreq
-                    );
-                }
-            }
+        // Compare the document with every other one by the cosine of their
+        // TF-IDF vectors and keep the closest
+        int[] similar = new int[SIMILAR];
+        double[] similarity = new double[SIMILAR];
+        Arrays.fill(similar, -1);
+        for (int doc = 0; doc < forward.maxDoc(); doc++)
+        {
+            if (doc == docID || forward.length(doc) == 0)
+                continue;
+            double cosine = forward.cosine(docID, doc);
+            // insertion into the short sorted list
+            int i = SIMILAR;
+            while (i > 0 && (similar[i - 1] < 0 || similarity[i - 1] < cosine))
+                i--;
+            if (i == SIMILAR)
+                continue;
+            System.arraycopy(similar, i, similar, i + 1, SIMILAR - i - 1);
+            System.arraycopy(similarity, i, similarity, i + 1, SIMILAR - i - 1);
+            similar[i] = doc;
+            similarity[i] = cosine;
         }
+        System.out.printf("\nMost similar to %s:\n", ireader.document(docID).get("filename"));
+        for (int i = 0; i < SIMILAR && similar[i] >= 0; i++)
+            System.out.printf("%.4f  %s\n", similarity[i], ireader.document(similar[i]).get("filename"));
 
         // close everything when we're done
         ireader.close();
     }
 
+    private void buildForwardIndex(DirectoryReader ireader) throws IOException
+    {
+        long start = System.nanoTime();
+        ForwardIndex.build(ireader, "content", Paths.get(FORWARD_INDEX));
+        System.out.printf("Forward index of %d documents written to %s in %.1f ms\n",
+            ireader.numDocs(), FORWARD_INDEX, (System.nanoTime() - start) / 1e6);
+    }
+
+    private ForwardIndex openForwardIndex(DirectoryReader ireader) throws IOException
+    {
+        Path file = Paths.get(FORWARD_INDEX);
+        if (Files.exists(file))
+        {
+            ForwardIndex forward = ForwardIndex.open(file);
+            if (forward.isCurrent(ireader))
+                return forward;
+        }
+        buildForwardIndex(ireader);
+        return ForwardIndex.open(file);
+    }
+
+    // Load the snapshot when it matches the index, otherwise sweep the
+    // segments (and save a new snapshot if one was asked for)
+    private TermStatsTable termStats(DirectoryReader ireader, String field) throws IOException
+    {
+        long start = System.nanoTime();
+        Path snapshot = STATS_SNAPSHOT == null ? null : Paths.get(STATS_SNAPSHOT + "." + field);
+        TermStatsTable stats = snapshot == null ? null : TermStatsTable.load(snapshot, ireader, field);
+        String source = "loaded from " + snapshot;
+        if (stats == null)
+        {
+            stats = TermStatsTable.build(ireader, field, STATS_THREADS);
+            source = "swept " + ireader.leaves().size() + " segments";
+            if (snapshot != null)
+                stats.save(snapshot);
+        }
+        System.out.printf("Term statistics of \"%s\": %d terms, %s in %.1f ms\n",
+            field, stats.size(), source, (System.nanoTime() - start) / 1e6);
+        return stats;
+    }
+
     public void shutdown() throws IOException
     {
         directory.close();
@@ -163,8 +333,25 @@ public class QueryIndex
             System.exit(1);            
         }
 
+        // --incremental re-indexes only new and changed files
+        boolean incremental = false;
+        List<String> files = new ArrayList<String>();
+        for (String arg : args)
+        {
+            if (arg.equals("--incremental"))
+                incremental = true;
+            else if (arg.startsWith("--statsThreads="))
+                STATS_THREADS = Integer.parseInt(arg.substring("--statsThreads=".length()));
+            else if (arg.startsWith("--statsSnapshot="))
+                STATS_SNAPSHOT = arg.substring("--statsSnapshot=".length());
+            else if (arg.startsWith("--forwardIndex="))
+                FORWARD_INDEX = arg.substring("--forwardIndex=".length());
+            else
+                files.add(arg);
+        }
+
         QueryIndex qi = new QueryIndex();
-        qi.buildIndex(args);
+        qi.buildIndex(files.toArray(new String[0]), incremental);
         qi.postingsDemo();
         qi.shutdown();
     }
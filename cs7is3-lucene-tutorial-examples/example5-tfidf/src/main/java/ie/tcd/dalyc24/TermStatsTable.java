@@ -0,0 +1,330 @@
+package ie.tcd.dalyc24;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.Counter;
+
+// docFreq and totalTermFreq of every term of one field, for the whole index.
+//
+// IndexReader.docFreq(term) and totalTermFreq(term) seek the terms dictionary
+// of every segment for every term they are asked about. This table is built
+// instead by walking each segment's TermsEnum once from start to end (the
+// segments in parallel) and adding the per-segment counts up. Lookups are
+// then a hash probe: terms live in a BytesRefHash and their statistics in
+// plain arrays indexed by the hash's ids.
+//
+// The table can be saved next to the index and loaded again as long as the
+// reader it was built from is still the current one. The version alone does
+// not tell two indexes apart (a new index starts counting from the same
+// value), so the commit's id and generation are checked too.
+public class TermStatsTable
+{
+
+    private static final int MAGIC = 0x54535432; // "TST2"
+
+    private final String field;
+    // The commit of the reader the statistics come from
+    private final CommitKey commit;
+    private final int docCount;
+    private final BytesRefHash terms;
+    private final int[] docFreqs;
+    private final long[] totalTermFreqs;
+
+    private TermStatsTable(String field, CommitKey commit, int docCount, BytesRefHash terms,
+        int[] docFreqs, long[] totalTermFreqs)
+    {
+        this.field = field;
+        this.commit = commit;
+        this.docCount = docCount;
+        this.terms = terms;
+        this.docFreqs = docFreqs;
+        this.totalTermFreqs = totalTermFreqs;
+    }
+
+    // What identifies the commit a reader was opened on: the id Lucene gives
+    // every index when it is created, the segments_N generation and the
+    // reader's version
+    static final class CommitKey
+    {
+        final byte[] id;
+        final long generation;
+        final long version;
+
+        CommitKey(byte[] id, long generation, long version)
+        {
+            this.id = id;
+            this.generation = generation;
+            this.version = version;
+        }
+
+        static CommitKey of(DirectoryReader reader) throws IOException
+        {
+            IndexCommit commit = reader.getIndexCommit();
+            SegmentInfos infos = SegmentInfos.readCommit(commit.getDirectory(), commit.getSegmentsFileName());
+            return new CommitKey(infos.getId(), commit.getGeneration(), reader.getVersion());
+        }
+
+        static CommitKey read(DataInputStream in) throws IOException
+        {
+            byte[] id = new byte[in.readUnsignedByte()];
+            in.readFully(id);
+            return new CommitKey(id, in.readLong(), in.readLong());
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeByte(id.length);
+            out.write(id);
+            out.writeLong(generation);
+            out.writeLong(version);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof CommitKey))
+                return false;
+            CommitKey other = (CommitKey) o;
+            return Arrays.equals(id, other.id) && generation == other.generation && version == other.version;
+        }
+
+        public int hashCode()
+        {
+            return 31 * (31 * Arrays.hashCode(id) + (int) (generation ^ (generation >>> 32)))
+                + (int) (version ^ (version >>> 32));
+        }
+    }
+
+    // One segment's terms in order, with their statistics
+    private static class SegmentStats
+    {
+        final BytesRefArray terms = new BytesRefArray(Counter.newCounter());
+        int[] docFreqs = new int[1024];
+        long[] totalTermFreqs = new long[1024];
+    }
+
+    public static TermStatsTable build(DirectoryReader reader, final String field, int threads) throws IOException
+    {
+        List<Callable<SegmentStats>> sweeps = new ArrayList<Callable<SegmentStats>>();
+        for (final LeafReaderContext leaf : reader.leaves())
+        {
+            sweeps.add(new Callable<SegmentStats>()
+            {
+                public SegmentStats call() throws IOException
+                {
+                    return sweep(leaf, field);
+                }
+            });
+        }
+
+        List<SegmentStats> segments = new ArrayList<SegmentStats>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, sweeps.size())));
+        try
+        {
+            for (Future<SegmentStats> future : pool.invokeAll(sweeps))
+                segments.add(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sweeping the terms of " + field, e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Failed to sweep the terms of " + field, e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        // A term in several segments gets the same id each time, so its
+        // counts add up
+        BytesRefHash terms = new BytesRefHash();
+        int[] docFreqs = new int[1024];
+        long[] totalTermFreqs = new long[1024];
+        BytesRefBuilder spare = new BytesRefBuilder();
+        for (SegmentStats segment : segments)
+        {
+            for (int i = 0; i < segment.terms.size(); i++)
+            {
+                int id = terms.add(segment.terms.get(spare, i));
+                if (id < 0)
+                    id = -id - 1;
+                else if (id >= docFreqs.length)
+                {
+                    // both arrays keep the same length
+                    int length = ArrayUtil.oversize(id + 1, 8);
+                    docFreqs = ArrayUtil.growExact(docFreqs, length);
+                    totalTermFreqs = ArrayUtil.growExact(totalTermFreqs, length);
+                }
+                docFreqs[id] += segment.docFreqs[i];
+                totalTermFreqs[id] += segment.totalTermFreqs[i];
+            }
+        }
+
+        Terms all = MultiTerms.getTerms(reader, field);
+        int docCount = all == null ? 0 : all.getDocCount();
+        return new TermStatsTable(field, CommitKey.of(reader), docCount, terms, docFreqs, totalTermFreqs);
+    }
+
+    private static SegmentStats sweep(LeafReaderContext leaf, String field) throws IOException
+    {
+        SegmentStats stats = new SegmentStats();
+        Terms terms = leaf.reader().terms(field);
+        if (terms == null)
+            return stats;
+
+        TermsEnum termsEnum = terms.iterator();
+        BytesRef term;
+        int i = 0;
+        while ((term = termsEnum.next()) != null)
+        {
+            stats.terms.append(term);
+            if (i == stats.docFreqs.length)
+            {
+                int length = ArrayUtil.oversize(i + 1, 8);
+                stats.docFreqs = ArrayUtil.growExact(stats.docFreqs, length);
+                stats.totalTermFreqs = ArrayUtil.growExact(stats.totalTermFreqs, length);
+            }
+            stats.docFreqs[i] = termsEnum.docFreq();
+            stats.totalTermFreqs[i] = termsEnum.totalTermFreq();
+            i++;
+        }
+        return stats;
+    }
+
+    public String getField()
+    {
+        return field;
+    }
+
+    public int size()
+    {
+        return terms.size();
+    }
+
+    // Documents with at least one term in the field
+    public int getDocCount()
+    {
+        return docCount;
+    }
+
+    // 0 for a term that is not in the index
+    public int docFreq(BytesRef term)
+    {
+        int id = terms.find(term);
+        return id < 0 ? 0 : docFreqs[id];
+    }
+
+    public long totalTermFreq(BytesRef term)
+    {
+        int id = terms.find(term);
+        return id < 0 ? 0 : totalTermFreqs[id];
+    }
+
+    // ClassicSimilarity's idf: 1 + ln((docCount + 1) / (docFreq + 1))
+    public double idf(BytesRef term)
+    {
+        return 1 + Math.log((docCount + 1.0) / (docFreq(term) + 1.0));
+    }
+
+    // Whether the table still describes what the reader sees
+    public boolean isCurrent(DirectoryReader reader) throws IOException
+    {
+        return CommitKey.of(reader).equals(commit);
+    }
+
+    public void save(Path file) throws IOException
+    {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeUTF(field);
+            commit.write(out);
+            out.writeInt(docCount);
+            out.writeInt(terms.size());
+            BytesRef term = new BytesRef();
+            for (int id = 0; id < terms.size(); id++)
+            {
+                terms.get(id, term);
+                out.writeInt(term.length);
+                out.write(term.bytes, term.offset, term.length);
+                out.writeInt(docFreqs[id]);
+                out.writeLong(totalTermFreqs[id]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The saved table, or null when there is none for this field or it was
+    // built from another commit or another index
+    public static TermStatsTable load(Path file, DirectoryReader reader, String field) throws IOException
+    {
+        if (!Files.exists(file))
+            return null;
+        CommitKey commit = CommitKey.of(reader);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        try
+        {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(field) || !CommitKey.read(in).equals(commit))
+                return null;
+            int docCount = in.readInt();
+            int size = in.readInt();
+            BytesRefHash terms = new BytesRefHash();
+            int[] docFreqs = new int[Math.max(1, size)];
+            long[] totalTermFreqs = new long[Math.max(1, size)];
+            byte[] bytes = new byte[64];
+            for (int id = 0; id < size; id++)
+            {
+                int length = in.readInt();
+                if (length > bytes.length)
+                    bytes = new byte[ArrayUtil.oversize(length, 1)];
+                in.readFully(bytes, 0, length);
+                terms.add(new BytesRef(bytes, 0, length));
+                docFreqs[id] = in.readInt();
+                totalTermFreqs[id] = in.readLong();
+            }
+            return new TermStatsTable(field, commit, docCount, terms, docFreqs, totalTermFreqs);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}